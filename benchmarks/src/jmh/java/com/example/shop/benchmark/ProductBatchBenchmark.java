@@ -0,0 +1,112 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.ShopApplication;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.service.ProductBatchItem;
+import com.example.shop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing N products one at a time through the single-item ProductService methods with
+ * writing them as one batch through ProductService.applyBatch, against an embedded H2 database.
+ * Each invocation writes all N products, so the scores of the two methods for the same N compare
+ * directly. Creates go to a new user every invocation; updates rewrite the titles of a catalog of N
+ * products seeded once per trial.
+ *
+ * The single-item methods call createOne and updateOne, the delta path of the single-item endpoints;
+ * the default full-list response would also re-read the user's list after every item.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProductBatchBenchmark {
+
+    // Number of products written per invocation
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private ConfigurableApplicationContext context;
+    private ProductService service;
+
+    private String updateUserId;
+    private List<String> updateIds;
+    private int round;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(ShopApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:bench-batch-" + items + ";DB_CLOSE_DELAY=-1",
+                        "logging.level.root=WARN")
+                .run();
+        service = context.getBean(ProductService.class);
+
+        updateUserId = UUID.randomUUID().toString();
+        updateIds = new ArrayList<>(items);
+        for (ProductBatchItem item : service.applyBatch(updateUserId, Products.newProducts(updateUserId, items),
+                List.of(), List.of())) {
+            updateIds.add(item.getEntity().getId());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void singleItemCreates(Blackhole blackhole) {
+        String userId = UUID.randomUUID().toString();
+        for (ProductEntity product : Products.newProducts(userId, items)) {
+            blackhole.consume(service.createOne(product));
+        }
+    }
+
+    @Benchmark
+    public List<ProductBatchItem> batchCreate() {
+        String userId = UUID.randomUUID().toString();
+        return service.applyBatch(userId, Products.newProducts(userId, items), List.of(), List.of());
+    }
+
+    @Benchmark
+    public void singleItemUpdates(Blackhole blackhole) {
+        for (ProductEntity product : updates()) {
+            blackhole.consume(service.updateOne(product));
+        }
+    }
+
+    @Benchmark
+    public List<ProductBatchItem> batchUpdate() {
+        return service.applyBatch(updateUserId, List.of(), updates(), List.of());
+    }
+
+    // Builds updates of every seeded product with a title that differs from the previous round's
+    private List<ProductEntity> updates() {
+        int n = round++;
+        List<ProductEntity> updates = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            ProductEntity product = Products.product(updateUserId, i);
+            product.setId(updateIds.get(i));
+            product.setTitle("Furniture Product " + i + " rev " + n);
+            updates.add(product);
+        }
+        return updates;
+    }
+}
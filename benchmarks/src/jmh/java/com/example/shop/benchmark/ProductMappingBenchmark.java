@@ -0,0 +1,41 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.model.ProductEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mapping between ProductEntity and ProductDTO in both directions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProductMappingBenchmark {
+
+    private ProductEntity entity;
+    private ProductDTO dto;
+
+    @Setup
+    public void setUp() {
+        entity = Products.product("bench-user", 1);
+        dto = new ProductDTO(entity);
+    }
+
+    @Benchmark
+    public ProductDTO entityToDto() {
+        return new ProductDTO(entity);
+    }
+
+    @Benchmark
+    public ProductEntity dtoToEntity() {
+        return ProductDTO.toEntity(dto);
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.ShopApplication;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.service.ProductService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ProductService.retrieve against an embedded H2 database seeded with one user's catalog,
+ * with the product list cache enabled and disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductServiceBenchmark {
+
+    private static final String USER_ID = "bench-user";
+
+    // Number of products in the user's catalog
+    @Param({"100", "10000", "100000"})
+    public int products;
+
+    // Maximum number of cached product lists; 0 disables the cache
+    @Param({"0", "10000"})
+    public long cacheSize;
+
+    private ConfigurableApplicationContext context;
+    private ProductService service;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(ShopApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:bench-" + products + "-" + cacheSize + ";DB_CLOSE_DELAY=-1",
+                        "shop.product-cache.maximum-size=" + cacheSize,
+                        "logging.level.root=WARN")
+                .run();
+        service = context.getBean(ProductService.class);
+
+        // Seed the catalog in chunks, so JDBC batching applies and the persistence context stays small
+        ProductRepository repository = context.getBean(ProductRepository.class);
+        List<ProductEntity> catalog = Products.newProducts(USER_ID, products);
+        for (int from = 0; from < catalog.size(); from += 1000) {
+            repository.saveAll(catalog.subList(from, Math.min(from + 1000, catalog.size())));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ProductEntity> retrieve() {
+        return service.retrieve(USER_ID);
+    }
+}
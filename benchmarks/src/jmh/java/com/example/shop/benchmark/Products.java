@@ -0,0 +1,49 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.model.ProductEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic products shared by the benchmarks.
+ */
+final class Products {
+
+    private static final String[] MATERIALS = {"Wood", "Steel", "Glass", "Leather", "Oak", "Walnut", "Fabric"};
+
+    private Products() {
+    }
+
+    // Builds the n-th synthetic product of a user
+    static ProductEntity product(String userId, int n) {
+        return ProductEntity.builder()
+                .id(String.format("%032x", n))
+                .userId(userId)
+                .title("Furniture Product " + n)
+                .material(MATERIALS[n % MATERIALS.length])
+                .price(100.0 + n % 1000)
+                .build();
+    }
+
+    // Builds count synthetic products of a user, without IDs so they can be inserted
+    static List<ProductEntity> newProducts(String userId, int count) {
+        List<ProductEntity> products = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            ProductEntity product = product(userId, n);
+            product.setId(null);
+            products.add(product);
+        }
+        return products;
+    }
+
+    // Builds count synthetic product DTOs
+    static List<ProductDTO> dtos(int count) {
+        List<ProductDTO> dtos = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            dtos.add(new ProductDTO(product("bench-user", n)));
+        }
+        return dtos;
+    }
+}
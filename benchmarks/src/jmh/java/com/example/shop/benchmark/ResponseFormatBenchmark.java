@@ -0,0 +1,94 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ResponseDTO;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the wire formats a product list response can be sent in: JSON, CBOR and Smile,
+ * each with and without gzip as applied by server compression. Measures encoding and decoding time;
+ * the payload size of every combination is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseFormatBenchmark {
+
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    @Param({"1000", "100000"})
+    public int products;
+
+    private ObjectMapper objectMapper;
+    private JavaType responseType;
+    private ResponseDTO<ProductDTO> response;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().factory(factory(format)).build();
+        responseType = objectMapper.getTypeFactory().constructParametricType(ResponseDTO.class, ProductDTO.class);
+        response = ResponseDTO.<ProductDTO>builder().data(Products.dtos(products)).build();
+        payload = encode();
+
+        System.out.printf("%n%s%s, %d products: %d bytes%n", format, gzip ? "+gzip" : "", products, payload.length);
+    }
+
+    private static JsonFactory factory(String format) {
+        switch (format) {
+            case "cbor":
+                return new CBORFactory();
+            case "smile":
+                return new SmileFactory();
+            default:
+                return new JsonFactory();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(response);
+        if (!gzip) {
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public ResponseDTO<ProductDTO> decode() throws IOException {
+        if (!gzip) {
+            return objectMapper.readValue(payload, responseType);
+        }
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            return objectMapper.readValue(in, responseType);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ResponseDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Jackson serialization of a product list response, as written by the controllers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseSerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int products;
+
+    private ObjectMapper objectMapper;
+    private ResponseDTO<ProductDTO> response;
+
+    @Setup
+    public void setUp() {
+        // Same defaults as the ObjectMapper Spring MVC writes responses with
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        response = ResponseDTO.<ProductDTO>builder().data(Products.dtos(products)).build();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.shop.benchmark;
+
+import com.example.shop.model.UserEntity;
+import com.example.shop.security.TokenProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JWT generation and validation in TokenProvider,
+ * with and without the verified token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenProviderBenchmark {
+
+    // Whether validated tokens are remembered; 0 disables the cache
+    @Param({"0", "100000"})
+    public long cacheSize;
+
+    private TokenProvider tokenProvider;
+    private UserEntity user;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        tokenProvider = newTokenProvider(cacheSize);
+        user = UserEntity.builder().id("4028b88187f4a1b10187f4a1c5a70000").email("bench@example.com").build();
+        token = tokenProvider.generate(user);
+    }
+
+    // Builds a TokenProvider outside of a Spring context
+    static TokenProvider newTokenProvider(long cacheSize) {
+        TokenProvider provider = new TokenProvider();
+        ReflectionTestUtils.setField(provider, "cacheMaximumSize", cacheSize);
+        ReflectionTestUtils.setField(provider, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.invokeMethod(provider, "initCache");
+        return provider;
+    }
+
+    @Benchmark
+    public String generate() {
+        return tokenProvider.generate(user);
+    }
+
+    @Benchmark
+    public String validateAndGetUserId() {
+        return tokenProvider.validateAndGetUserId(token);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.shop.loadtest;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.model.UserEntity;
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic catalog and inserts it through the repositories, in chunks so that
+ * Hibernate's JDBC batching applies and each persistence context stays small.
+ */
+final class CatalogSeeder {
+
+    static final String PASSWORD = "load-test-password";
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final String[] ADJECTIVES = {"Rustic", "Modern", "Compact", "Classic", "Folding", "Vintage"};
+    private static final String[] NOUNS = {"Chair", "Table", "Shelf", "Desk", "Lamp", "Bench", "Cabinet", "Sofa"};
+    private static final String[] MATERIALS = {"Wood", "Steel", "Glass", "Leather", "Oak", "Walnut", "Fabric"};
+
+    private final UserRepository userRepository;
+    private final ProductRepository productRepository;
+
+    CatalogSeeder(UserRepository userRepository, ProductRepository productRepository) {
+        this.userRepository = userRepository;
+        this.productRepository = productRepository;
+    }
+
+    /**
+     * Seeds the users and their products.
+     *
+     * @param settings the number of users and products to create
+     * @param passwordHash the encoded PASSWORD; hashing once keeps seeding fast with BCrypt
+     * @return the emails of the users and the IDs of each user's products
+     */
+    SeededCatalog seed(LoadTestSettings settings, String passwordHash) {
+        Random random = new Random(settings.seed);
+
+        List<UserEntity> users = new ArrayList<>(settings.users);
+        for (int i = 0; i < settings.users; i++) {
+            users.add(UserEntity.builder()
+                    .username("load-user-" + i)
+                    .email(email(i))
+                    .password(passwordHash)
+                    .build());
+        }
+        List<String> userIds = new ArrayList<>(settings.users);
+        for (List<UserEntity> chunk : chunks(users)) {
+            userRepository.saveAll(chunk).forEach(user -> userIds.add(user.getId()));
+        }
+
+        // Spread the products evenly over the users
+        List<ProductEntity> products = new ArrayList<>(settings.products);
+        for (int i = 0; i < settings.products; i++) {
+            products.add(randomProduct(random, userIds.get(i % settings.users)));
+        }
+        List<List<String>> productIds = new ArrayList<>(settings.users);
+        for (int i = 0; i < settings.users; i++) {
+            productIds.add(new ArrayList<>());
+        }
+        // saveAll returns the products in order, so the n-th product still belongs to user n % users
+        int n = 0;
+        for (List<ProductEntity> chunk : chunks(products)) {
+            for (ProductEntity product : productRepository.saveAll(chunk)) {
+                productIds.get(n++ % settings.users).add(product.getId());
+            }
+        }
+
+        List<String> emails = new ArrayList<>(settings.users);
+        for (int i = 0; i < settings.users; i++) {
+            emails.add(email(i));
+        }
+        return new SeededCatalog(emails, productIds);
+    }
+
+    static ProductEntity randomProduct(Random random, String userId) {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title(ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + NOUNS[random.nextInt(NOUNS.length)]
+                        + " " + random.nextInt(100000))
+                .material(MATERIALS[random.nextInt(MATERIALS.length)])
+                .price((double) (10 + random.nextInt(2000)))
+                .build();
+    }
+
+    private static String email(int i) {
+        return "load-user-" + i + "@example.com";
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += CHUNK_SIZE) {
+            chunks.add(list.subList(from, Math.min(from + CHUNK_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * The seeded users, by index, and the IDs of their products.
+     */
+    static final class SeededCatalog {
+        final List<String> emails;
+        final List<List<String>> productIds;
+
+        SeededCatalog(List<String> emails, List<List<String>> productIds) {
+            this.emails = emails;
+            this.productIds = productIds;
+        }
+    }
+}
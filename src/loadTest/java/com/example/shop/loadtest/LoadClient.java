@@ -0,0 +1,204 @@
+package com.example.shop.loadtest;
+
+import com.example.shop.model.ProductEntity;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * One simulated client. It sends requests back to back, each for one of the users it owns,
+ * picking the operation at random by the weights of the traffic mix.
+ *
+ * Users are split between clients, so clients do not update or delete each other's products;
+ * with more clients than users, clients share users and may see each other's deletions as errors.
+ * Writes ask for delta responses, which carry the ID of a created product.
+ */
+final class LoadClient implements Callable<Map<Operation, OperationStats>> {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final ObjectMapper objectMapper;
+    private final LoadTestSettings settings;
+    private final CatalogSeeder.SeededCatalog catalog;
+    private final long measureFromNanos;
+    private final long stopAtNanos;
+    private final Random random;
+
+    // Owned users by index, with the IDs of their products as this client knows them
+    private final List<Integer> users = new ArrayList<>();
+    private final Map<Integer, List<String>> productIds = new HashMap<>();
+    private final Map<Integer, String> tokens = new HashMap<>();
+
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+    LoadClient(int index, HttpClient httpClient, URI baseUri, ObjectMapper objectMapper, LoadTestSettings settings,
+               CatalogSeeder.SeededCatalog catalog, long measureFromNanos, long stopAtNanos) {
+        this.httpClient = httpClient;
+        this.baseUri = baseUri;
+        this.objectMapper = objectMapper;
+        this.settings = settings;
+        this.catalog = catalog;
+        this.measureFromNanos = measureFromNanos;
+        this.stopAtNanos = stopAtNanos;
+        this.random = new Random(settings.seed + index);
+
+        for (int user = index % settings.users; user < settings.users; user += settings.clients) {
+            users.add(user);
+            productIds.put(user, new ArrayList<>(catalog.productIds.get(user)));
+        }
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    @Override
+    public Map<Operation, OperationStats> call() {
+        while (System.nanoTime() < stopAtNanos) {
+            int user = users.get(random.nextInt(users.size()));
+
+            // Every user signs in before its first product request
+            Operation operation = tokens.containsKey(user) ? nextOperation() : Operation.SIGNIN;
+            if ((operation == Operation.UPDATE || operation == Operation.DELETE) && productIds.get(user).isEmpty()) {
+                operation = Operation.CREATE;
+            }
+
+            long start = System.nanoTime();
+            int status = execute(operation, user);
+            if (start >= measureFromNanos) {
+                stats.get(operation).record(System.nanoTime() - start, status);
+            }
+        }
+        return stats;
+    }
+
+    private Operation nextOperation() {
+        int total = settings.signinWeight + settings.listWeight + settings.createWeight
+                + settings.updateWeight + settings.deleteWeight;
+        int pick = random.nextInt(total);
+        if ((pick -= settings.signinWeight) < 0) {
+            return Operation.SIGNIN;
+        }
+        if ((pick -= settings.listWeight) < 0) {
+            return Operation.LIST;
+        }
+        if ((pick -= settings.createWeight) < 0) {
+            return Operation.CREATE;
+        }
+        if (pick - settings.updateWeight < 0) {
+            return Operation.UPDATE;
+        }
+        return Operation.DELETE;
+    }
+
+    // Sends one request and returns its HTTP status, or 0 when it failed without a response
+    private int execute(Operation operation, int user) {
+        try {
+            switch (operation) {
+                case SIGNIN:
+                    return signin(user);
+                case LIST:
+                    return send(user, "GET", "/api/product", null).statusCode();
+                case CREATE:
+                    return create(user);
+                case UPDATE:
+                    return update(user);
+                default:
+                    return delete(user);
+            }
+        } catch (IOException e) {
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private int signin(int user) throws IOException, InterruptedException {
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("email", catalog.emails.get(user))
+                .put("password", CatalogSeeder.PASSWORD);
+        HttpResponse<String> response = httpClient.send(request("POST", "/users/signin", body).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 200) {
+            tokens.put(user, objectMapper.readTree(response.body()).path("token").asText());
+        }
+        return response.statusCode();
+    }
+
+    private int create(int user) throws IOException, InterruptedException {
+        ProductEntity product = CatalogSeeder.randomProduct(random, null);
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("title", product.getTitle())
+                .put("material", product.getMaterial())
+                .put("price", product.getPrice());
+        HttpResponse<String> response = send(user, "POST", "/api/product?response=delta", body);
+        if (response.statusCode() == 200) {
+            JsonNode id = objectMapper.readTree(response.body()).path("data").path(0).path("product").path("id");
+            if (id.isTextual()) {
+                productIds.get(user).add(id.asText());
+            }
+        }
+        return response.statusCode();
+    }
+
+    private int update(int user) throws IOException, InterruptedException {
+        List<String> ids = productIds.get(user);
+        ProductEntity product = CatalogSeeder.randomProduct(random, null);
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("id", ids.get(random.nextInt(ids.size())))
+                .put("title", product.getTitle())
+                .put("material", product.getMaterial())
+                .put("price", product.getPrice());
+        return send(user, "PUT", "/api/product?response=delta", body).statusCode();
+    }
+
+    private int delete(int user) throws IOException, InterruptedException {
+        List<String> ids = productIds.get(user);
+        // Swap the picked ID with the last one, so removing it is O(1)
+        int picked = random.nextInt(ids.size());
+        String id = ids.get(picked);
+        ids.set(picked, ids.get(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+
+        ObjectNode body = objectMapper.createObjectNode().put("id", id);
+        return send(user, "DELETE", "/api/product?response=delta", body).statusCode();
+    }
+
+    // Sends an authenticated request on behalf of the user
+    private HttpResponse<String> send(int user, String method, String path, JsonNode body)
+            throws IOException, InterruptedException {
+        HttpRequest request = request(method, path, body)
+                .header("Authorization", "Bearer " + tokens.get(user))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String method, String path, JsonNode body) throws IOException {
+        HttpRequest.BodyPublisher publisher = body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(REQUEST_TIMEOUT)
+                .method(method, publisher);
+        if (body != null) {
+            builder.header("Content-Type", "application/json");
+        }
+        return builder;
+    }
+}
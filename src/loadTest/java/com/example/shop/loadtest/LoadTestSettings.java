@@ -0,0 +1,75 @@
+package com.example.shop.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from "loadtest.*" system properties.
+ * For example: ./gradlew loadTest -Dloadtest.users=1000 -Dloadtest.products=10000 -Dloadtest.clients=64
+ */
+final class LoadTestSettings {
+
+    final int users;            // Number of seeded users
+    final int products;         // Number of seeded products, spread evenly over the users
+    final int clients;          // Number of concurrent clients
+    final int warmupSeconds;    // Traffic sent before measuring starts
+    final int durationSeconds;  // Length of the measured traffic
+    final long seed;            // Seed of the random traffic, so runs are repeatable
+
+    // Relative weights of the operations in the traffic mix
+    final int signinWeight;
+    final int listWeight;
+    final int createWeight;
+    final int updateWeight;
+    final int deleteWeight;
+
+    final Path reportDir;       // Directory the JSON report is written to
+
+    private LoadTestSettings() {
+        users = intProperty("users", 1000);
+        products = intProperty("products", 10000);
+        clients = intProperty("clients", 32);
+        warmupSeconds = intProperty("warmup-seconds", 10);
+        durationSeconds = intProperty("duration-seconds", 60);
+        seed = Long.getLong("loadtest.seed", 42L);
+        signinWeight = intProperty("mix.signin", 5);
+        listWeight = intProperty("mix.list", 60);
+        createWeight = intProperty("mix.create", 15);
+        updateWeight = intProperty("mix.update", 15);
+        deleteWeight = intProperty("mix.delete", 5);
+        reportDir = Paths.get(System.getProperty("loadtest.report-dir", "build/reports/loadtest"));
+
+        if (users < 1 || products < 0 || clients < 1 || durationSeconds < 1) {
+            throw new IllegalArgumentException("Invalid load test settings: " + toMap());
+        }
+    }
+
+    static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings();
+    }
+
+    // Settings as written to the report
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("users", users);
+        map.put("products", products);
+        map.put("clients", clients);
+        map.put("warmupSeconds", warmupSeconds);
+        map.put("durationSeconds", durationSeconds);
+        map.put("seed", seed);
+        Map<String, Object> mix = new LinkedHashMap<>();
+        mix.put("signin", signinWeight);
+        mix.put("list", listWeight);
+        mix.put("create", createWeight);
+        mix.put("update", updateWeight);
+        mix.put("delete", deleteWeight);
+        map.put("mix", mix);
+        return map;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.getInteger("loadtest." + name, defaultValue);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.shop.loadtest;
+
+/**
+ * The kinds of requests in the load test traffic mix, one per measured endpoint.
+ */
+enum Operation {
+    SIGNIN("POST /users/signin"),
+    LIST("GET /api/product"),
+    CREATE("POST /api/product"),
+    UPDATE("PUT /api/product"),
+    DELETE("DELETE /api/product");
+
+    final String endpoint;
+
+    Operation(String endpoint) {
+        this.endpoint = endpoint;
+    }
+}
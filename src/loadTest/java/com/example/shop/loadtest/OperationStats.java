@@ -0,0 +1,56 @@
+package com.example.shop.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and outcomes of one operation. Each client keeps its own instances,
+ * which are merged after the run, so recording never contends between clients.
+ */
+final class OperationStats {
+
+    // Latencies in microseconds, from 1 microsecond up to 1 minute, with 3 significant digits
+    private final Histogram latencies = new Histogram(1, TimeUnit.MINUTES.toMicros(1), 3);
+
+    // Number of responses per HTTP status; 0 counts requests that failed without a response
+    private final Map<Integer, Long> statuses = new TreeMap<>();
+
+    void record(long latencyNanos, int status) {
+        latencies.recordValue(Math.min(latencies.getHighestTrackableValue(),
+                Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos))));
+        statuses.merge(status, 1L, Long::sum);
+    }
+
+    void add(OperationStats other) {
+        latencies.add(other.latencies);
+        other.statuses.forEach((status, count) -> statuses.merge(status, count, Long::sum));
+    }
+
+    long requests() {
+        return latencies.getTotalCount();
+    }
+
+    long errors() {
+        return requests() - statuses.getOrDefault(200, 0L);
+    }
+
+    Map<Integer, Long> statuses() {
+        return statuses;
+    }
+
+    // Latency at the given percentile, in milliseconds
+    double percentileMillis(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double meanMillis() {
+        return latencies.getMean() / 1000.0;
+    }
+
+    double maxMillis() {
+        return latencies.getMaxValue() / 1000.0;
+    }
+}
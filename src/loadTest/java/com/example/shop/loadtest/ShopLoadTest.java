@@ -0,0 +1,147 @@
+package com.example.shop.loadtest;
+
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.UserRepository;
+import com.example.shop.security.PasswordHasher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * End-to-end load test: seeds an in-memory H2 database with a synthetic catalog, boots the application
+ * on a random local port and drives mixed sign-in, list, create, update and delete traffic from
+ * concurrent clients. Throughput and p50/p99/p99.9 latencies of each endpoint are written as JSON
+ * to build/reports/loadtest/loadtest-<timestamp>.json. Runs offline; see LoadTestSettings for the knobs.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+        "logging.level.root=WARN"
+})
+class ShopLoadTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void mixedTraffic() throws Exception {
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+
+        long seedStart = System.nanoTime();
+        String passwordHash = passwordHasher.getEncoder().encode(CatalogSeeder.PASSWORD);
+        CatalogSeeder.SeededCatalog catalog = new CatalogSeeder(userRepository, productRepository)
+                .seed(settings, passwordHash);
+        long seedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart);
+
+        Map<Operation, OperationStats> stats = drive(settings, catalog);
+
+        Path report = writeReport(settings, seedMillis, stats);
+        System.out.println("Load test report written to " + report.toAbsolutePath());
+
+        long total = stats.values().stream().mapToLong(OperationStats::requests).sum();
+        assertTrue(total > 0, "No requests completed during the measured period");
+    }
+
+    // Runs the clients through warm-up and measurement, and merges their statistics
+    private Map<Operation, OperationStats> drive(LoadTestSettings settings, CatalogSeeder.SeededCatalog catalog)
+            throws InterruptedException, ExecutionException {
+        // One thread per client; the shared HTTP/1.1 client keeps a pooled connection per in-flight request
+        ExecutorService executor = Executors.newFixedThreadPool(settings.clients);
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        URI baseUri = URI.create("http://localhost:" + port);
+
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+
+        List<Future<Map<Operation, OperationStats>>> futures = new ArrayList<>(settings.clients);
+        try {
+            for (int i = 0; i < settings.clients; i++) {
+                futures.add(executor.submit(new LoadClient(i, httpClient, baseUri, objectMapper, settings,
+                        catalog, measureFrom, stopAt)));
+            }
+
+            Map<Operation, OperationStats> merged = new EnumMap<>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                merged.put(operation, new OperationStats());
+            }
+            for (Future<Map<Operation, OperationStats>> future : futures) {
+                future.get().forEach((operation, clientStats) -> merged.get(operation).add(clientStats));
+            }
+            return merged;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Path writeReport(LoadTestSettings settings, long seedMillis, Map<Operation, OperationStats> stats)
+            throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("settings", settings.toMap());
+        report.put("seedMillis", seedMillis);
+
+        long total = 0;
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            total += operationStats.requests();
+
+            Map<String, Object> endpoint = new LinkedHashMap<>();
+            endpoint.put("endpoint", entry.getKey().endpoint);
+            endpoint.put("requests", operationStats.requests());
+            endpoint.put("errors", operationStats.errors());
+            endpoint.put("throughputPerSecond", (double) operationStats.requests() / settings.durationSeconds);
+            endpoint.put("meanMillis", operationStats.meanMillis());
+            endpoint.put("p50Millis", operationStats.percentileMillis(50.0));
+            endpoint.put("p99Millis", operationStats.percentileMillis(99.0));
+            endpoint.put("p999Millis", operationStats.percentileMillis(99.9));
+            endpoint.put("maxMillis", operationStats.maxMillis());
+            endpoint.put("statuses", operationStats.statuses());
+            endpoints.put(entry.getKey().name().toLowerCase(Locale.ROOT), endpoint);
+        }
+        report.put("throughputPerSecond", (double) total / settings.durationSeconds);
+        report.put("endpoints", endpoints);
+
+        Files.createDirectories(settings.reportDir);
+        Path file = settings.reportDir.resolve("loadtest-" + System.currentTimeMillis() + ".json");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        return file;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.shop.config;
+
+import com.example.shop.model.TimeOrderedIdGenerator;
+import com.example.shop.model.TimeOrderedIds;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the primary keys of new products and users, see TimeOrderedIds.
+ * New rows get hex UUID keys unless shop.ids.time-ordered is enabled. Time-ordered keys need a
+ * shop.ids.worker-id that is unique among the instances sharing a database, as two instances with the
+ * same worker ID issue the same keys; the application does not start with them enabled unless a
+ * worker ID is configured.
+ */
+@Slf4j
+@Configuration
+public class IdGeneratorConfig {
+
+    // Whether new rows get time-ordered IDs rather than hex UUIDs
+    @Value("${shop.ids.time-ordered:false}")
+    private boolean timeOrdered;
+
+    // Worker ID embedded in time-ordered IDs, 0 to 1023; required when time-ordered IDs are enabled
+    @Value("${shop.ids.worker-id:-1}")
+    private long workerId;
+
+    /**
+     * Creates the generator of the primary keys of new rows.
+     *
+     * @return the key generator
+     * @throws IllegalStateException if time-ordered IDs are enabled without a worker ID
+     */
+    @Bean
+    public TimeOrderedIds timeOrderedIds() {
+        if (timeOrdered && workerId < 0) {
+            throw new IllegalStateException("shop.ids.worker-id must be set to a worker ID between 0 and 1023 "
+                    + "that no other instance sharing the database uses, or shop.ids.time-ordered set to false");
+        }
+        TimeOrderedIds ids = new TimeOrderedIds(timeOrdered, workerId);
+        if (timeOrdered) {
+            log.info("New rows get time-ordered IDs with worker ID {}", workerId);
+        }
+        return ids;
+    }
+
+    // Hands the key generator to Hibernate, which creates its identifier generators itself
+    @Bean
+    public HibernatePropertiesCustomizer timeOrderedIdsHibernateProperties(TimeOrderedIds timeOrderedIds) {
+        return properties -> properties.put(TimeOrderedIdGenerator.IDS_SETTING, timeOrderedIds);
+    }
+}
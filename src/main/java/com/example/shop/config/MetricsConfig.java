@@ -0,0 +1,22 @@
+package com.example.shop.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics configuration.
+ * Endpoint latency (http.server.requests), repository latency (spring.data.repository.invocations),
+ * the Hikari pool and the JVM are instrumented by Spring Boot Actuator. This class enables the
+ * {@code @Timed} annotation used on the service layer.
+ */
+@Configuration
+public class MetricsConfig {
+
+    // Records a timer for every method of a bean annotated with @Timed
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.shop.config;
+
+import com.example.shop.persistence.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Splits database traffic between the primary and a read replica when shop.datasource.replica.url is set.
+ * The primary pool is configured as usual through spring.datasource.*, the replica pool through
+ * shop.datasource.replica.* (url, username, password) and shop.datasource.replica.hikari.*.
+ * Read-only transactions use the replica and everything else the primary; the schema is managed on the
+ * primary only, and the replica is expected to receive it through replication.
+ */
+@Configuration
+@ConditionalOnProperty(name = "shop.datasource.replica.url")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("shop.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(Environment environment) {
+        // Bound here rather than exposed as a bean, so Spring Boot's own DataSourceProperties stays the only one
+        DataSourceProperties properties = Binder.get(environment)
+                .bind("shop.datasource.replica", DataSourceProperties.class)
+                .get();
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    // The data source used by JPA and everything else that asks for one
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica) {
+        return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primary, replica));
+    }
+}
@@ -27,6 +27,8 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
             .and()
             .authorizeRequests()
             .antMatchers("/users/**").permitAll()
+            // Health checks and metric scrapes come from infrastructure without a user token
+            .antMatchers("/actuator/health", "/actuator/prometheus").permitAll()
             .anyRequest().authenticated();
 
         http.addFilterAfter(jwtAuthenticationFilter, CorsFilter.class);
@@ -0,0 +1,67 @@
+package com.example.shop.config;
+
+import com.example.shop.persistence.ShardRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Spreads the product table over several databases when shop.sharding.enabled is true.
+ * The application's regular data source becomes the default shard, named by shop.sharding.default-shard,
+ * and every entry under shop.sharding.shards.<name> (url, username, password, hikari.*) adds a shard.
+ * The regular data source is wrapped rather than replaced, so it may itself route to a read replica.
+ */
+@Configuration
+@ConditionalOnProperty(name = "shop.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    // Static, so the post-processor is registered before the data source it wraps is created
+    @Bean
+    public static BeanPostProcessor shardRoutingPostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!"dataSource".equals(beanName) || !(bean instanceof DataSource)) {
+                    return bean;
+                }
+                Binder binder = Binder.get(environment);
+                String defaultShard = binder.bind("shop.sharding.default-shard", String.class).orElse("shard0");
+                return new ShardRoutingDataSource(defaultShard, (DataSource) bean, createShards(binder, defaultShard));
+            }
+        };
+    }
+
+    // Builds a connection pool for each additional shard
+    private static Map<String, DataSource> createShards(Binder binder, String defaultShard) {
+        Map<String, DataSourceProperties> configured = binder
+                .bind("shop.sharding.shards", Bindable.mapOf(String.class, DataSourceProperties.class))
+                .orElse(Collections.emptyMap());
+
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        configured.forEach((name, properties) -> {
+            if (name.equals(defaultShard)) {
+                throw new IllegalStateException("Shard " + name + " is the default shard and cannot be configured");
+            }
+            if (!StringUtils.hasText(properties.getUrl())) {
+                throw new IllegalStateException("No url configured for shard " + name);
+            }
+            HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            dataSource.setPoolName("shard-" + name);
+            binder.bind("shop.sharding.shards." + name + ".hikari", Bindable.ofInstance(dataSource));
+            shards.put(name, dataSource);
+        });
+        return shards;
+    }
+}
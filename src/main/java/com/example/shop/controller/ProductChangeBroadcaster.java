@@ -0,0 +1,335 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.service.ProductChange;
+import com.example.shop.service.ProductChangeListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes committed writes to a user's products to the user's open Server-Sent Events streams, so
+ * dashboards can patch their copy of the product list instead of polling for it.
+ *
+ * ProductService calls listeners under the user's write lock, so a change is only offered to each
+ * subscriber's bounded buffer there; a small pool of sender threads writes the buffers out, one sender
+ * at a time per subscriber so its events stay in catalog version order. A subscriber whose buffer is
+ * full is too slow to keep up: its buffer is discarded, it is sent a final resync event and its stream
+ * is closed, and it has to retrieve the product list again before subscribing anew. Idle streams get a
+ * heartbeat comment at a fixed interval, which keeps proxies from closing them and lets the server
+ * notice clients that went away.
+ *
+ * Events are named created, updated or deleted, carry the ProductDTO as JSON data and the catalog
+ * version after the write as their ID. The first event of a stream, named catalog, carries the
+ * version at the time of subscribing; streams are opened under the user's read lock, so the changes
+ * that follow it are exactly those after that version.
+ */
+@Slf4j
+@Component
+public class ProductChangeBroadcaster implements ProductChangeListener {
+
+    static final String CATALOG_EVENT = "catalog";
+    static final String RESYNC_EVENT = "resync";
+
+    private static final StreamEvent HEARTBEAT = new StreamEvent(null, null, null, "heartbeat");
+
+    // Events that may wait for a subscriber before it is dropped as too slow
+    @Value("${shop.product-stream.buffer-size:256}")
+    private int bufferSize;
+
+    // Interval of the heartbeat comments sent to idle streams
+    @Value("${shop.product-stream.heartbeat-millis:15000}")
+    private long heartbeatMillis;
+
+    // Time after which a stream is closed; clients reconnect and receive a fresh catalog event
+    @Value("${shop.product-stream.timeout-millis:1800000}")
+    private long timeoutMillis;
+
+    // Upper bounds on open streams, in total and per user
+    @Value("${shop.product-stream.max-subscribers:10000}")
+    private int maxSubscribers;
+
+    @Value("${shop.product-stream.max-subscribers-per-user:16}")
+    private int maxSubscribersPerUser;
+
+    // Threads writing events to the streams
+    @Value("${shop.product-stream.sender-threads:4}")
+    private int senderThreads;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Open streams by user ID
+    private final ConcurrentMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private ExecutorService senders;
+    private ScheduledExecutorService heartbeats;
+    private Counter sentEvents;
+    private Counter droppedSubscribers;
+
+    // Starts the sender pool and the heartbeat timer, and registers the stream metrics
+    @PostConstruct
+    void init() {
+        senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("product-stream-"));
+        heartbeats = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("product-stream-heartbeat-"));
+        heartbeats.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("shop.product.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open product change streams")
+                .register(meterRegistry);
+        sentEvents = Counter.builder("shop.product.stream.events")
+                .description("Product change events written to streams")
+                .register(meterRegistry);
+        droppedSubscribers = Counter.builder("shop.product.stream.dropped")
+                .description("Product change streams closed because the client could not keep up")
+                .register(meterRegistry);
+    }
+
+    // Closes every stream when the application shuts down
+    @PreDestroy
+    void shutdown() {
+        heartbeats.shutdownNow();
+        subscribers.values().forEach(userSubscribers -> userSubscribers.forEach(Subscriber::close));
+        senders.shutdown();
+    }
+
+    /**
+     * Opens a product change stream for a user.
+     * Must be called under the user's read lock with the version read under it, as by
+     * ProductService.atCatalogVersion: no write is published until the lock is released, so the stream
+     * receives exactly the changes after that version.
+     *
+     * @param userId the user ID
+     * @param catalogVersion the user's current catalog version, sent as the first event
+     * @return the emitter of the stream
+     * @throws RejectedExecutionException if the maximum number of streams is open
+     */
+    public SseEmitter subscribe(final String userId, final long catalogVersion) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        subscribe(userId, emitter, catalogVersion);
+        return emitter;
+    }
+
+    // Registers a stream's emitter; package-private so tests can supply their own emitters
+    Subscriber subscribe(final String userId, final SseEmitter emitter, final long catalogVersion) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new RejectedExecutionException("Too many product change streams are open");
+        }
+
+        // The catalog event is queued before the subscriber can be offered any change
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        subscriber.buffer.offer(new StreamEvent(Long.toString(catalogVersion), CATALOG_EVENT, catalogVersion, null));
+
+        Set<Subscriber> userSubscribers = subscribers.compute(userId, (id, current) -> {
+            Set<Subscriber> set = current != null ? current : ConcurrentHashMap.newKeySet();
+            if (set.size() < maxSubscribersPerUser) {
+                set.add(subscriber);
+            }
+            return set;
+        });
+        if (!userSubscribers.contains(subscriber)) {
+            subscriberCount.decrementAndGet();
+            throw new RejectedExecutionException("Too many product change streams are open for this user");
+        }
+
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        subscriber.scheduleSend();
+        return subscriber;
+    }
+
+    /**
+     * Returns the number of open product change streams.
+     *
+     * @return the number of streams
+     */
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    // Offers the change to each of the user's streams; runs under the user's write lock, so never blocks
+    @Override
+    public void onProductChange(final ProductChange change) {
+        Set<Subscriber> userSubscribers = subscribers.get(change.getEntity().getUserId());
+        if (userSubscribers == null || userSubscribers.isEmpty()) {
+            return;
+        }
+
+        StreamEvent event = new StreamEvent(Long.toString(change.getVersion()),
+                change.getType().name().toLowerCase(Locale.ROOT), new ProductDTO(change.getEntity()), null);
+        for (Subscriber subscriber : userSubscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    // Sends a heartbeat to every stream that has nothing else waiting
+    private void sendHeartbeats() {
+        try {
+            for (Set<Subscriber> userSubscribers : subscribers.values()) {
+                for (Subscriber subscriber : userSubscribers) {
+                    subscriber.heartbeat();
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error sending product stream heartbeats: {}", e.getMessage());
+        }
+    }
+
+    private void remove(final Subscriber subscriber) {
+        Set<Subscriber> userSubscribers = subscribers.get(subscriber.userId);
+        if (userSubscribers != null && userSubscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            subscribers.computeIfPresent(subscriber.userId, (id, set) -> set.isEmpty() ? null : set);
+        }
+    }
+
+    /**
+     * An open stream: its bounded buffer of events and the emitter they are written to.
+     */
+    final class Subscriber {
+        private final String userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<StreamEvent> buffer;
+        // Set while a sender thread is writing the buffer out
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // Set once the subscriber fell behind; the buffer then only holds the resync event
+        private volatile boolean dropped;
+
+        private Subscriber(String userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        // Queues an event, dropping the subscriber when its buffer is full
+        private void offer(final StreamEvent event) {
+            if (dropped) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                drop();
+                return;
+            }
+            scheduleSend();
+        }
+
+        private void heartbeat() {
+            if (!dropped && buffer.isEmpty() && buffer.offer(HEARTBEAT)) {
+                scheduleSend();
+            }
+        }
+
+        // Replaces everything buffered with a resync event and closes the stream once that is sent
+        private void drop() {
+            dropped = true;
+            remove(this);
+            droppedSubscribers.increment();
+            buffer.clear();
+            buffer.offer(new StreamEvent(null, RESYNC_EVENT, "", null));
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RejectedExecutionException e) {
+                    sending.set(false);
+                    close();
+                }
+            }
+        }
+
+        // Writes out the buffer; only one sender runs per subscriber at a time
+        private void send() {
+            do {
+                StreamEvent event;
+                while ((event = buffer.poll()) != null) {
+                    try {
+                        emitter.send(event.toBuilder());
+                        if (event != HEARTBEAT) {
+                            sentEvents.increment();
+                        }
+                    } catch (Exception e) {
+                        // The client went away; the emitter's error callback removes the subscriber
+                        log.debug("Closing product stream of user {}: {}", userId, e.getMessage());
+                        buffer.clear();
+                        close();
+                        sending.set(false);
+                        return;
+                    }
+                }
+                if (dropped) {
+                    close();
+                }
+                sending.set(false);
+                // An event offered after the last poll but before the flag was cleared found a sender running
+            } while (!buffer.isEmpty() && sending.compareAndSet(false, true));
+        }
+
+        private void close() {
+            remove(this);
+            try {
+                emitter.complete();
+            } catch (Exception e) {
+                log.debug("Error closing product stream of user {}: {}", userId, e.getMessage());
+            }
+        }
+    }
+
+    // An event as queued for a subscriber; built into a fresh SseEventBuilder for every send,
+    // as builders keep state and cannot be shared between streams
+    private static final class StreamEvent {
+        private final String id;
+        private final String name;
+        private final Object data;
+        private final String comment;
+
+        private StreamEvent(String id, String name, Object data, String comment) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+            this.comment = comment;
+        }
+
+        private SseEmitter.SseEventBuilder toBuilder() {
+            SseEmitter.SseEventBuilder builder = SseEmitter.event();
+            if (comment != null) {
+                return builder.comment(comment);
+            }
+            if (id != null) {
+                builder.id(id);
+            }
+            return builder.name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+}
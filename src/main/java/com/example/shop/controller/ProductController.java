@@ -2,30 +2,112 @@
  * The ProductController class is a REST controller that handles HTTP requests related to products.
  * It interacts with the ProductService to perform CRUD operations on the ProductEntity objects
  * and convert them to/from ProductDTO objects.
+ *
+ * The product handlers return futures: their database work runs on the ProductDbExecutor's bounded pool,
+ * sized to the JDBC connection pool, and the servlet thread is released while it runs.
  */
 
 package com.example.shop.controller;
 
+import com.example.shop.config.WebMvcConfig;
+import com.example.shop.dto.CacheStatsDTO;
+import com.example.shop.dto.PageResponseDTO;
+import com.example.shop.dto.ProductBatchRequestDTO;
+import com.example.shop.dto.ProductBatchResultDTO;
+import com.example.shop.dto.ProductBulkDeleteDTO;
+import com.example.shop.dto.ProductChangeDTO;
+import com.example.shop.dto.ProductChangesDTO;
 import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ProductLogEntryDTO;
 import com.example.shop.dto.ResponseDTO;
 import com.example.shop.model.ProductEntity;
+import com.example.shop.service.ProductBatchItem;
+import com.example.shop.service.ProductChange;
+import com.example.shop.service.ProductChangeLogPage;
+import com.example.shop.service.ProductDbExecutor;
+import com.example.shop.service.ProductExporter;
+import com.example.shop.service.ProductPage;
 import com.example.shop.service.ProductService;
+import com.example.shop.service.ProductSort;
+import com.example.shop.service.ProductVersionMismatchException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheStats;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/product")
 public class ProductController {
+    // Values selecting a delta response for writes
+    private static final String DELTA_RESPONSE = "delta";
+    private static final String PREFER = "Prefer";
+    private static final String PREFER_MINIMAL = "return=minimal";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
+
+    // Headers carrying the catalog version the full product list corresponds to, and the epoch of the
+    // server run the version belongs to; versions restart when the server does
+    private static final String CATALOG_VERSION = "X-Catalog-Version";
+    private static final String CATALOG_EPOCH = "X-Catalog-Epoch";
+
+    // Seconds a rejected client is asked to wait before retrying
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     // Inject the ProductService dependency
     @Autowired
     private ProductService service;
 
+    // Pool the product requests' database work runs on
+    @Autowired
+    private ProductDbExecutor dbExecutor;
+
+    // Serialized full product list responses, by user and catalog version
+    @Autowired
+    private ProductListBodyCache bodyCache;
+
+    // Open product change streams, fed by the ProductService's change listeners
+    @Autowired
+    private ProductChangeBroadcaster broadcaster;
+
+    // Streams all products for catalog exports
+    @Autowired
+    private ProductExporter exporter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Users allowed to export the whole catalog, by user ID
+    @Value("${shop.admin.user-ids:}")
+    private Set<String> adminUserIds;
+
+    // Time an export may take to stream, in place of the timeout of other asynchronous requests
+    @Value("${shop.product-export.timeout-millis:3600000}")
+    private long exportTimeoutMillis;
+
     // Test method to get ProductDTO response
     @GetMapping("/product-dto")
     public ResponseEntity<?> getProductDTO() {
@@ -66,26 +148,58 @@ public class ProductController {
         return ResponseEntity.ok().body(response);
     }
 
+    // Returns the counters of the ProductService's per-user product list cache
+    @GetMapping("/cache-stats")
+    public ResponseEntity<?> getCacheStats() {
+        CacheStats stats = service.getCacheStats();
+
+        List<CacheStatsDTO> list = new ArrayList<>();
+        list.add(CacheStatsDTO.builder()
+                .size(service.getCacheSize())
+                .hitCount(stats.hitCount())
+                .missCount(stats.missCount())
+                .evictionCount(stats.evictionCount())
+                .build());
+        ResponseDTO<CacheStatsDTO> response = ResponseDTO.<CacheStatsDTO>builder().data(list).build();
+
+        return ResponseEntity.ok().body(response);
+    }
+
     /**
      * Endpoint for creating a new product.
      *
      * @param userId the user ID used for authentication
      * @param dto the ProductDTO object to be created
-     * @return a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
+     * @param responseMode "delta" to receive only the created product and the new catalog version
+     * @param prefer the Prefer header; "return=minimal" has the same effect as the delta response mode
+     * @return a future of a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
      */
     @PostMapping
-    public ResponseEntity<?> createProduct(@AuthenticationPrincipal String userId, @RequestBody ProductDTO dto) {
+    public CompletableFuture<ResponseEntity<?>> createProduct(@AuthenticationPrincipal String userId,
+                                                              @RequestBody ProductDTO dto,
+                                                              @RequestParam(value = "response", required = false) String responseMode,
+                                                              @RequestHeader(value = PREFER, required = false) String prefer) {
+        return async(() -> create(userId, dto, responseMode, prefer));
+    }
 
+    // Creates the product; runs on the product database pool
+    private ResponseEntity<?> create(String userId, ProductDTO dto, String responseMode, String prefer) {
         try {
             // Convert the received ProductDTO object to a ProductEntity object
             ProductEntity entity = ProductDTO.toEntity(dto);
 
-            // Set the ID of the ProductEntity object to null to ensure it gets a new ID
+            // Set the ID and version of the ProductEntity object to null to ensure it is inserted with a new ID
             entity.setId(null);
+            entity.setVersion(null);
 
             // Set the user ID of the ProductEntity object to the authenticated user's ID
             entity.setUserId(userId);
 
+            // Return only the created product when the client asked for a delta response
+            if (isDeltaResponse(responseMode, prefer)) {
+                return deltaResponse(service.createOne(entity), prefer);
+            }
+
             // Call the ProductService's create method to create the new product entity in the database
             List<ProductEntity> entities = service.create(entity);
 
@@ -101,6 +215,9 @@ public class ProductController {
 
             // Return an HTTP response with a status code of 200 (OK) and the ResponseDTO object as the body
             return ResponseEntity.ok().body(response);
+        } catch (RejectedExecutionException e) {
+            // The write-behind queue is full; nothing was written
+            return busy(e.getMessage());
         } catch (Exception e) {
             // If an exception is caught, create a ResponseDTO object with an error message and send it as a bad request
             String errorMessage = e.getMessage();
@@ -114,25 +231,402 @@ public class ProductController {
     /**
      * Retrieves a list of ProductDTO objects from the database through the ProductService
      * and sends it as an HTTP response wrapped in a ResponseDTO object.
+     * When any of the cursor, limit or sort parameters is given, a single page is returned instead,
+     * wrapped in a PageResponseDTO object together with the cursor of the next page.
+     *
+     * The full list carries the user's catalog version in the X-Catalog-Version header, the base version
+     * against which delta write responses can be applied, and a strong ETag derived from it. Versions
+     * restart with the server, so X-Catalog-Epoch names the run they belong to: a delta whose epoch differs
+     * from that of the client's copy cannot be applied, and the client has to retrieve the list again. A request
+     * whose If-None-Match names the current ETag is answered with 304 Not Modified on the servlet thread,
+     * without touching the database. JSON responses are served from the ProductListBodyCache while the
+     * catalog is unchanged, gzip-compressed when the client accepts it. While a write to the user's
+     * products is in progress, the whole request is answered on the product database pool instead, so
+     * the servlet thread never waits for the write.
      *
      * @param userId the user ID for authentication
-     * @return a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object as the body
+     * @param cursor the opaque cursor returned with the previous page, absent for the first page
+     * @param limit the maximum number of products in the page
+     * @param sort the sort order of the page: id, title or price
+     * @param ifNoneMatch the ETags of the product lists the client already has
+     * @param accept the media types the client accepts
+     * @param acceptEncoding the content codings the client accepts
+     * @return a future of a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object as the body
      */
     @GetMapping
-    public ResponseEntity<?> retrieveProductList(@AuthenticationPrincipal String userId) {
-        // Retrieve all ProductEntity objects belonging to the authenticated user
-        List<ProductEntity> entities = service.retrieve(userId);
+    public CompletableFuture<ResponseEntity<?>> retrieveProductList(@AuthenticationPrincipal String userId,
+                                                                    @RequestParam(required = false) String cursor,
+                                                                    @RequestParam(required = false) Integer limit,
+                                                                    @RequestParam(required = false) String sort,
+                                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        // Serve a single page when the client asks for pagination
+        if (cursor != null || limit != null || sort != null) {
+            return async(() -> retrieveProductPage(userId, cursor, limit, sort));
+        }
+
+        boolean json = prefersJson(accept);
+        boolean gzip = acceptsGzip(acceptEncoding);
+
+        // Read the catalog version before the list, so the version sent never claims data newer than the list.
+        // A write holding the user's lock would block the servlet thread, so the request then waits on the pool.
+        OptionalLong current = service.tryGetCatalogVersion(userId);
+        if (!current.isPresent()) {
+            return async(() -> retrieveList(userId, service.getCatalogVersion(userId), ifNoneMatch, json, gzip));
+        }
+
+        long version = current.getAsLong();
+        String etag = service.getCatalogETag(version);
+        ResponseEntity<?> cached = cachedListResponse(userId, version, etag, ifNoneMatch, json, gzip);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return async(() -> loadList(userId, version, etag, json, gzip));
+    }
+
+    // Answers a full list request at the given catalog version; runs on the product database pool
+    private ResponseEntity<?> retrieveList(String userId, long version, String ifNoneMatch, boolean json, boolean gzip) {
+        String etag = service.getCatalogETag(version);
+        ResponseEntity<?> cached = cachedListResponse(userId, version, etag, ifNoneMatch, json, gzip);
+        return cached != null ? cached : loadList(userId, version, etag, json, gzip);
+    }
 
+    // Answers without reading the list when the client's copy is current, or when the serialized JSON body
+    // is cached at this version; returns null if the list has to be read
+    private ResponseEntity<?> cachedListResponse(String userId, long version, String etag, String ifNoneMatch,
+                                                 boolean json, boolean gzip) {
+        // The client's copy is current: answer without reading or sending the list
+        if (matchesETag(ifNoneMatch, etag)) {
+            return listResponse(HttpStatus.NOT_MODIFIED, version, etag).build();
+        }
+        if (!json) {
+            return null;
+        }
+        ProductListBodyCache.Body body = bodyCache.getIfCurrent(userId, version);
+        return body == null ? null : bodyResponse(body, version, etag, gzip);
+    }
+
+    // Reads the list: JSON clients get the body serialized and cached at this version, other formats go
+    // through the message converters; runs on the product database pool
+    private ResponseEntity<?> loadList(String userId, long version, String etag, boolean json, boolean gzip) {
+        return json ? retrieveBody(userId, version, etag, gzip) : retrieve(userId, version, etag);
+    }
+
+    // Retrieves the full list of the user's products; runs on the product database pool
+    private ResponseEntity<?> retrieve(String userId, long version, String etag) {
+        return listResponse(HttpStatus.OK, version, etag).body(toListResponse(service.retrieve(userId)));
+    }
+
+    // Retrieves the full list of the user's products, serializes it and caches the serialized body;
+    // runs on the product database pool
+    private ResponseEntity<?> retrieveBody(String userId, long version, String etag, boolean gzip) {
+        try {
+            ProductListBodyCache.Body body = bodyCache.put(userId, version, toListResponse(service.retrieve(userId)));
+            return bodyResponse(body, version, etag, gzip);
+        } catch (Exception e) {
+            ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    // Converts the user's products to ProductDTO objects wrapped in a ResponseDTO object
+    private static ResponseDTO<ProductDTO> toListResponse(List<ProductEntity> entities) {
         // Convert the retrieved ProductEntity objects to ProductDTO objects
         List<ProductDTO> dtos = entities.stream()
                 .map(ProductDTO::new)
                 .collect(Collectors.toList());
 
-        // Wrap the ProductDTO objects in a ResponseDTO object and return it as an HTTP response with a status code of 200 (OK)
-        ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+        // Wrap the ProductDTO objects in a ResponseDTO object
+        return ResponseDTO.<ProductDTO>builder()
                 .data(dtos)
                 .build();
-        return ResponseEntity.ok().body(response);
+    }
+
+    // Writes a serialized product list body as it is, gzip-compressed if the client accepts it and a
+    // compressed copy exists; the server's own compression leaves responses with a Content-Encoding alone
+    private ResponseEntity<?> bodyResponse(ProductListBodyCache.Body body, long version, String etag,
+                                           boolean gzip) {
+        ResponseEntity.BodyBuilder builder = listResponse(HttpStatus.OK, version, etag)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (gzip && body.getGzip() != null) {
+            return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .contentLength(body.getGzip().length)
+                    .body(body.getGzip());
+        }
+        return builder.contentLength(body.getJson().length).body(body.getJson());
+    }
+
+    // Checks whether JSON is the client's preferred response format; true when it states no preference
+    private static boolean prefersJson(String accept) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(mediaTypes);
+            return mediaTypes.isEmpty() || mediaTypes.get(0).includes(MediaType.APPLICATION_JSON);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    // Checks whether the client accepts gzip-compressed responses
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    // Starts a full list response: catalog version and epoch, ETag, and caching headers that make caches revalidate
+    // every time and keep each user's list and each negotiated format apart, since one URL serves them all
+    private ResponseEntity.BodyBuilder listResponse(HttpStatus status, long version, String etag) {
+        return ResponseEntity.status(status)
+                .header(CATALOG_VERSION, String.valueOf(version))
+                .header(CATALOG_EPOCH, service.getCatalogEpoch())
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .varyBy(HttpHeaders.AUTHORIZATION, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    // Checks whether an If-None-Match header names the given ETag; weak and strong forms both match
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Retrieves one page of the authenticated user's products and wraps it in a PageResponseDTO object
+    private ResponseEntity<?> retrieveProductPage(String userId, String cursor, Integer limit, String sort) {
+        try {
+            // Retrieve the page positioned after the cursor
+            ProductPage page = service.retrievePage(userId, ProductSort.from(sort), cursor, limit);
+
+            // Convert the retrieved ProductEntity objects to ProductDTO objects
+            List<ProductDTO> dtos = page.getEntities().stream()
+                    .map(ProductDTO::new)
+                    .collect(Collectors.toList());
+
+            // Wrap the ProductDTO objects and the next cursor in a PageResponseDTO object
+            PageResponseDTO<ProductDTO> response = PageResponseDTO.<ProductDTO>builder()
+                    .data(dtos)
+                    .nextCursor(page.getNextCursor())
+                    .build();
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            // An invalid cursor, limit or sort is reported as a bad request
+            PageResponseDTO<ProductDTO> response = PageResponseDTO.<ProductDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Searches the title and material of the authenticated user's products.
+     * Products containing every term of the query are returned best match first, one page at a time.
+     *
+     * @param userId the user ID for authentication
+     * @param query the search terms
+     * @param cursor the opaque cursor returned with the previous page, absent for the first page
+     * @param limit the maximum number of products in the page
+     * @return a future of a ResponseEntity with a page of ProductDTO objects wrapped in a PageResponseDTO object
+     */
+    @GetMapping("/search")
+    public CompletableFuture<ResponseEntity<?>> searchProducts(@AuthenticationPrincipal String userId,
+                                                               @RequestParam("q") String query,
+                                                               @RequestParam(required = false) String cursor,
+                                                               @RequestParam(required = false) Integer limit) {
+        return async(() -> search(userId, query, cursor, limit));
+    }
+
+    // Searches the user's products; runs on the product database pool, since a first search builds the index
+    private ResponseEntity<?> search(String userId, String query, String cursor, Integer limit) {
+        try {
+            // Search the user's products through the ProductService
+            ProductPage page = service.search(userId, query, cursor, limit);
+
+            // Convert the matching ProductEntity objects to ProductDTO objects
+            List<ProductDTO> dtos = page.getEntities().stream()
+                    .map(ProductDTO::new)
+                    .collect(Collectors.toList());
+
+            PageResponseDTO<ProductDTO> response = PageResponseDTO.<ProductDTO>builder()
+                    .data(dtos)
+                    .nextCursor(page.getNextCursor())
+                    .build();
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            PageResponseDTO<ProductDTO> response = PageResponseDTO.<ProductDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Endpoint for retrieving the changes to the user's products after a sequence of the user's change log,
+     * so a client that reconnects applies only what changed instead of retrieving the whole product list.
+     * Each product appears with its state after the change; deletions carry only the product ID.
+     * A token from before a restart of the server is always answered with a resync, as changes logged
+     * just before a crash can be lost and their sequences given to later changes.
+     *
+     * @param userId the user ID for authentication
+     * @param since the since token returned by the previous request, 0 for none
+     * @param limit the maximum number of changes
+     * @return a future of a ResponseEntity with the changes wrapped in a ProductChangesDTO object,
+     *         which has resync set when the client has to retrieve the full product list instead
+     */
+    @GetMapping("/changes")
+    public CompletableFuture<ResponseEntity<?>> retrieveProductChanges(@AuthenticationPrincipal String userId,
+                                                                       @RequestParam String since,
+                                                                       @RequestParam(required = false) Integer limit) {
+        return async(() -> changes(userId, since, limit));
+    }
+
+    // Reads the user's change log; runs on the product database pool, as older changes come from the table
+    private ResponseEntity<?> changes(String userId, String since, Integer limit) {
+        try {
+            ProductChangeLogPage page = service.retrieveChanges(userId, since, limit);
+
+            List<ProductLogEntryDTO> dtos = page.getChanges().stream()
+                    .map(ProductLogEntryDTO::new)
+                    .collect(Collectors.toList());
+
+            ProductChangesDTO response = ProductChangesDTO.builder()
+                    .data(dtos)
+                    .seq(page.getSeq())
+                    .epoch(page.getEpoch())
+                    .since(page.getSince())
+                    .more(page.isMore())
+                    .resync(page.isResync())
+                    .build();
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noStore())
+                    .body(response);
+        } catch (Exception e) {
+            ProductChangesDTO response = ProductChangesDTO.builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Endpoint for receiving the user's product changes as Server-Sent Events instead of polling
+     * the product list. The first event, named catalog, carries the current catalog version; each
+     * created, updated or deleted event carries the ProductDTO and has the new catalog version as its ID.
+     * A resync event means the client fell behind: it should retrieve the product list and subscribe again.
+     * The stream is opened on the product database pool, as reading the version waits for a write in progress.
+     *
+     * @param userId the user ID for authentication
+     * @return a ResponseEntity with the event stream, or 503 Service Unavailable if too many streams are open
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<SseEmitter>> streamProductChanges(@AuthenticationPrincipal String userId) {
+        try {
+            return dbExecutor.submit(() -> ResponseEntity.ok()
+                            .cacheControl(CacheControl.noStore())
+                            .body(service.atCatalogVersion(userId, version -> broadcaster.subscribe(userId, version))))
+                    .exceptionally(ProductController::streamFailed);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(streamUnavailable());
+        }
+    }
+
+    // Answers a stream request that could not be opened: too many streams, or the pool was too busy
+    private static ResponseEntity<SseEmitter> streamFailed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException || cause instanceof TimeoutException) {
+            return streamUnavailable();
+        }
+        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+    }
+
+    private static ResponseEntity<SseEmitter> streamUnavailable() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
+
+    /**
+     * Endpoint for exporting the products of all users, for catalog dumps; only users listed in
+     * shop.admin.user-ids may call it. Products are streamed while they are read from the database,
+     * so the response is never held in memory as a whole.
+     *
+     * @param userId the user ID for authentication
+     * @param format "ndjson" for one JSON object per line, or "csv"
+     * @param gzip true to receive the export as a gzip file
+     * @param request the current request
+     * @return a ResponseEntity streaming the products, or an error response
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(@AuthenticationPrincipal String userId,
+                                                                @RequestParam(defaultValue = "ndjson") String format,
+                                                                @RequestParam(defaultValue = "false") boolean gzip,
+                                                                HttpServletRequest request) {
+        if (!adminUserIds.contains(userId)) {
+            return errorBody(HttpStatus.FORBIDDEN, "Exporting products requires an admin user");
+        }
+
+        ProductExporter.Format exportFormat;
+        try {
+            exportFormat = ProductExporter.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return errorBody(HttpStatus.BAD_REQUEST, "Unsupported export format: " + format);
+        }
+
+        // A large export runs far longer than other asynchronous requests are allowed to
+        request.setAttribute(WebMvcConfig.ASYNC_TIMEOUT_ATTRIBUTE, exportTimeoutMillis);
+
+        String fileName = "products-" + System.currentTimeMillis() + "." + exportFormat.name().toLowerCase(Locale.ROOT)
+                + (gzip ? ".gz" : "");
+        MediaType contentType = gzip ? MediaType.parseMediaType("application/gzip")
+                : exportFormat == ProductExporter.Format.CSV ? MediaType.parseMediaType("text/csv;charset=UTF-8")
+                : MediaType.parseMediaType("application/x-ndjson;charset=UTF-8");
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 65536);
+                exporter.export(exportFormat, gzipOut);
+                gzipOut.finish();
+            } else {
+                exporter.export(exportFormat, out);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName).build().toString())
+                .body(body);
+    }
+
+    // Error response of a streaming endpoint, which can only return a StreamingResponseBody
+    private ResponseEntity<StreamingResponseBody> errorBody(HttpStatus status, String errorMessage) {
+        ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                .errorMessage(errorMessage)
+                .build();
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, response));
     }
 
     /**
@@ -140,10 +634,58 @@ public class ProductController {
      *
      * @param userId the user ID for authentication
      * @param dto the ProductDTO object containing the ID of the product to be deleted
-     * @return a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
+     * @param responseMode "delta" to receive only the deleted product and the new catalog version
+     * @param prefer the Prefer header; "return=minimal" has the same effect as the delta response mode
+     * @return a future of a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
      */
     @DeleteMapping
-    public ResponseEntity<?> deleteProduct(@AuthenticationPrincipal String userId, @RequestBody ProductDTO dto) {
+    public CompletableFuture<ResponseEntity<?>> deleteProduct(@AuthenticationPrincipal String userId,
+                                                              @RequestBody ProductDTO dto,
+                                                              @RequestParam(value = "response", required = false) String responseMode,
+                                                              @RequestHeader(value = PREFER, required = false) String prefer) {
+        return async(() -> delete(userId, dto, responseMode, prefer));
+    }
+
+    /**
+     * Endpoint for deleting several products by ID with a single DELETE statement,
+     * e.g. DELETE /api/product?id=a&id=b. IDs of products that do not exist or belong to another
+     * user are ignored; the response reports how many products were deleted.
+     *
+     * @param userId the user ID for authentication
+     * @param ids the IDs of the products to delete
+     * @return a future of a ResponseEntity with the deleted count and the new catalog version wrapped in a ResponseDTO object
+     */
+    @DeleteMapping(params = "id")
+    public CompletableFuture<ResponseEntity<?>> deleteProducts(@AuthenticationPrincipal String userId,
+                                                               @RequestParam("id") List<String> ids) {
+        return async(() -> deleteByIds(userId, ids));
+    }
+
+    // Deletes the products; runs on the product database pool
+    private ResponseEntity<?> deleteByIds(String userId, List<String> ids) {
+        try {
+            int deleted = service.deleteByIds(userId, ids);
+
+            List<ProductBulkDeleteDTO> list = new ArrayList<>();
+            list.add(ProductBulkDeleteDTO.builder()
+                    .deleted(deleted)
+                    .version(service.getCatalogVersion(userId))
+                    .epoch(service.getCatalogEpoch())
+                    .build());
+            ResponseDTO<ProductBulkDeleteDTO> response = ResponseDTO.<ProductBulkDeleteDTO>builder()
+                    .data(list)
+                    .build();
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            ResponseDTO<ProductBulkDeleteDTO> response = ResponseDTO.<ProductBulkDeleteDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    // Deletes the product; runs on the product database pool
+    private ResponseEntity<?> delete(String userId, ProductDTO dto, String responseMode, String prefer) {
         try {
             // Convert the received ProductDTO object to a ProductEntity object
             ProductEntity entity = ProductDTO.toEntity(dto);
@@ -151,6 +693,11 @@ public class ProductController {
             // Set the user ID of the ProductEntity object
             entity.setUserId(userId);
 
+            // Return only the deleted product when the client asked for a delta response
+            if (isDeltaResponse(responseMode, prefer)) {
+                return deltaResponse(service.deleteOne(entity), prefer);
+            }
+
             // Call the ProductService's delete method to delete the product entity from the database
             List<ProductEntity> entities = service.delete(entity);
 
@@ -166,6 +713,9 @@ public class ProductController {
 
             // Return an HTTP response with a status code of 200 (OK) and the ResponseDTO object as the body
             return ResponseEntity.ok().body(response);
+        } catch (RejectedExecutionException e) {
+            // The write-behind queue is full; nothing was written
+            return busy(e.getMessage());
         } catch (Exception e) {
             // If an exception is caught, create a ResponseDTO object with an error message and send it as a bad request
             String errorMessage = e.getMessage();
@@ -177,14 +727,29 @@ public class ProductController {
     }
 
     /**
-     * Endpoint for updating a product.
+     * Endpoint for updating a product's title, material and price.
+     * With an If-Match header naming the product's ETag, the product is only updated if it is still
+     * at that version; otherwise nothing is changed and 412 Precondition Failed is returned.
+     * The response carries the updated product's new ETag.
      *
      * @param userId the user ID for authentication
      * @param dto the ProductDTO object containing the data to be updated
-     * @return a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
+     * @param ifMatch the ETag of the product version the update is based on, or "*" for any version
+     * @param responseMode "delta" to receive only the updated product and the new catalog version
+     * @param prefer the Prefer header; "return=minimal" has the same effect as the delta response mode
+     * @return a future of a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
      */
     @PutMapping
-    public ResponseEntity<?> updateProduct(@AuthenticationPrincipal String userId, @RequestBody ProductDTO dto) {
+    public CompletableFuture<ResponseEntity<?>> updateProduct(@AuthenticationPrincipal String userId,
+                                                              @RequestBody ProductDTO dto,
+                                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                              @RequestParam(value = "response", required = false) String responseMode,
+                                                              @RequestHeader(value = PREFER, required = false) String prefer) {
+        return async(() -> update(userId, dto, ifMatch, responseMode, prefer));
+    }
+
+    // Updates the product; runs on the product database pool
+    private ResponseEntity<?> update(String userId, ProductDTO dto, String ifMatch, String responseMode, String prefer) {
         try {
             // Convert the received ProductDTO object to a ProductEntity object
             ProductEntity entity = ProductDTO.toEntity(dto);
@@ -192,6 +757,14 @@ public class ProductController {
             // Set the user ID of the ProductEntity object
             entity.setUserId(userId);
 
+            // Only the If-Match header makes the update conditional, not a version in the body
+            entity.setVersion(parseIfMatch(ifMatch));
+
+            // Return only the updated product when the client asked for a delta response
+            if (isDeltaResponse(responseMode, prefer)) {
+                return deltaResponse(service.updateOne(entity), prefer);
+            }
+
             // Call the ProductService's update method to update the product entity in the database
             List<ProductEntity> entities = service.update(entity);
 
@@ -205,8 +778,22 @@ public class ProductController {
                     .data(dtos)
                     .build();
 
-            // Return an HTTP response with a status code of 200 (OK) and the ResponseDTO object as the body
-            return ResponseEntity.ok().body(response);
+            // Return an HTTP response with a status code of 200 (OK), the updated product's ETag and the ResponseDTO object
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            entities.stream()
+                    .filter(product -> product.getId().equals(entity.getId()))
+                    .findFirst()
+                    .ifPresent(product -> builder.eTag(etag(product)));
+            return builder.body(response);
+        } catch (ProductVersionMismatchException e) {
+            // Another write changed the product since the client read it; nothing was updated
+            ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(response);
+        } catch (RejectedExecutionException e) {
+            // The write-behind queue is full; nothing was written
+            return busy(e.getMessage());
         } catch (Exception e) {
             // If an exception is caught, create a ResponseDTO object with an error message and send it as a bad request
             String errorMessage = e.getMessage();
@@ -217,4 +804,190 @@ public class ProductController {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Endpoint for applying a batch of product creates, updates and deletes in one request.
+     * The batch runs in a single transaction with JDBC batching, so it replaces one HTTP request,
+     * one transaction and one full product list re-read per item on the single-item endpoints with
+     * one request, one transaction, one lookup query per operation type and one JDBC batch per
+     * 50 rows (hibernate.jdbc.batch_size) of each statement type. Items that cannot be applied are
+     * reported individually and do not abort the rest of the batch.
+     *
+     * ProductBatchBenchmark in the benchmarks module measures N single-item writes against one batch of
+     * N at the service level (./gradlew :benchmarks:jmh -PjmhIncludes=ProductBatchBenchmark). No results
+     * are recorded here; run it on the target hardware before quoting a speed-up. The load test in
+     * src/loadTest does not drive the batch endpoint yet.
+     *
+     * @param userId the user ID for authentication
+     * @param dto the ProductBatchRequestDTO object listing the operations
+     * @return a future of a ResponseEntity with the per-item results wrapped in a ResponseDTO object
+     */
+    @PostMapping("/batch")
+    public CompletableFuture<ResponseEntity<?>> applyProductBatch(@AuthenticationPrincipal String userId,
+                                                                  @RequestBody ProductBatchRequestDTO dto) {
+        return async(() -> applyBatch(userId, dto));
+    }
+
+    // Applies the batch; runs on the product database pool
+    private ResponseEntity<?> applyBatch(String userId, ProductBatchRequestDTO dto) {
+        try {
+            // Convert the received ProductDTO objects to ProductEntity objects
+            List<ProductEntity> creates = toEntities(dto.getCreate());
+            List<ProductEntity> updates = toEntities(dto.getUpdate());
+            List<ProductEntity> deletes = toEntities(dto.getDelete());
+
+            // Call the ProductService's applyBatch method to apply all operations in one transaction
+            List<ProductBatchItem> items = service.applyBatch(userId, creates, updates, deletes);
+
+            // Convert the per-item outcomes to ProductBatchResultDTO objects
+            List<ProductBatchResultDTO> results = items.stream()
+                    .map(ProductBatchResultDTO::new)
+                    .collect(Collectors.toList());
+
+            // Create a ResponseDTO object to wrap the results and send it as an HTTP response
+            ResponseDTO<ProductBatchResultDTO> response = ResponseDTO.<ProductBatchResultDTO>builder()
+                    .data(results)
+                    .build();
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            // If an exception is caught, nothing was applied; send the error message as a bad request
+            ResponseDTO<ProductBatchResultDTO> response = ResponseDTO.<ProductBatchResultDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Endpoint for retrieving several products by ID in one query.
+     * Products that do not exist or belong to another user are left out of the response.
+     *
+     * @param userId the user ID for authentication
+     * @param ids the IDs of the products to retrieve
+     * @return a future of a ResponseEntity with a list of ProductDTO objects wrapped in a ResponseDTO object
+     */
+    @GetMapping("/batch")
+    public CompletableFuture<ResponseEntity<?>> retrieveProductBatch(@AuthenticationPrincipal String userId,
+                                                                     @RequestParam("id") List<String> ids) {
+        return async(() -> retrieveBatch(userId, ids));
+    }
+
+    // Retrieves the requested products; runs on the product database pool
+    private ResponseEntity<?> retrieveBatch(String userId, List<String> ids) {
+        try {
+            // Retrieve the requested ProductEntity objects belonging to the authenticated user
+            List<ProductDTO> dtos = service.retrieveByIds(userId, ids).stream()
+                    .map(ProductDTO::new)
+                    .collect(Collectors.toList());
+
+            ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                    .data(dtos)
+                    .build();
+            return ResponseEntity.ok().body(response);
+        } catch (Exception e) {
+            ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                    .errorMessage(e.getMessage())
+                    .build();
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    // Runs a handler on the product database pool. A full pool is answered immediately with
+    // 503 Service Unavailable, and so is a request that timed out waiting for a thread of the pool;
+    // neither has run, so the client can retry it, writes included.
+    private CompletableFuture<ResponseEntity<?>> async(Supplier<ResponseEntity<?>> handler) {
+        try {
+            return dbExecutor.submit(handler).exceptionally(ProductController::failed);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(busy("Too many requests, please try again later"));
+        }
+    }
+
+    // Builds the response for a handler that failed outside of its own error handling
+    private static ResponseEntity<?> failed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        // Only a handler that never started times out, see ProductDbExecutor
+        if (cause instanceof TimeoutException) {
+            return busy("Timed out waiting for the database, please try again later");
+        }
+        ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                .errorMessage(cause.getMessage())
+                .build();
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    // Builds the response sent when the product database pool cannot take more work
+    private static ResponseEntity<?> busy(String errorMessage) {
+        ResponseDTO<ProductDTO> response = ResponseDTO.<ProductDTO>builder()
+                .errorMessage(errorMessage)
+                .build();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(response);
+    }
+
+    // Converts a possibly absent list of ProductDTO objects to ProductEntity objects
+    private static List<ProductEntity> toEntities(List<ProductDTO> dtos) {
+        if (dtos == null) {
+            return new ArrayList<>();
+        }
+        return dtos.stream()
+                .map(ProductDTO::toEntity)
+                .collect(Collectors.toList());
+    }
+
+    // Checks whether the client asked for a delta response instead of the full product list,
+    // either with the response=delta query parameter or with a Prefer: return=minimal header
+    private static boolean isDeltaResponse(String responseMode, String prefer) {
+        return DELTA_RESPONSE.equalsIgnoreCase(responseMode) || prefersMinimal(prefer);
+    }
+
+    // Checks whether the Prefer header contains the return=minimal preference
+    private static boolean prefersMinimal(String prefer) {
+        if (prefer == null) {
+            return false;
+        }
+        for (String preference : prefer.split(",")) {
+            if (PREFER_MINIMAL.equalsIgnoreCase(preference.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Wraps a single product change in a ResponseDTO object, acknowledging the Prefer header if it was used
+    private ResponseEntity<?> deltaResponse(ProductChange change, String prefer) {
+        List<ProductChangeDTO> list = new ArrayList<>();
+        list.add(new ProductChangeDTO(change, service.getCatalogEpoch()));
+        ResponseDTO<ProductChangeDTO> response = ResponseDTO.<ProductChangeDTO>builder().data(list).build();
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+        if (prefersMinimal(prefer)) {
+            builder.header(PREFERENCE_APPLIED, PREFER_MINIMAL);
+        }
+        if (change.getType() != ProductChange.Type.DELETED) {
+            builder.eTag(etag(change.getEntity()));
+        }
+        return builder.body(response);
+    }
+
+    // Builds the strong ETag of a product from its version
+    private static String etag(ProductEntity product) {
+        return "\"" + product.getVersion() + "\"";
+    }
+
+    // Reads the product version from an If-Match header; null when absent or "*", which match any version
+    private static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        if (value.length() < 3 || !value.startsWith("\"") || !value.endsWith("\"")) {
+            throw new RuntimeException("If-Match must contain a single strong ETag");
+        }
+        try {
+            return Long.parseLong(value.substring(1, value.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("If-Match must contain a single strong ETag");
+        }
+    }
+}
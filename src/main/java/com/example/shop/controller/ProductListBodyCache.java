@@ -0,0 +1,141 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ResponseDTO;
+import com.example.shop.service.ProductChange;
+import com.example.shop.service.ProductChangeListener;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of each user's full product list response, serialized to JSON and optionally gzip-compressed,
+ * tagged with the catalog version it was built at. A body is only served while the user's catalog is
+ * still at that version, so a repeated read of an unchanged catalog is written out as stored bytes
+ * without mapping DTOs or running Jackson. Writes to a user's products drop the user's body right away.
+ * The cache is bounded by the total size of the stored bodies.
+ */
+@Slf4j
+@Component
+public class ProductListBodyCache implements ProductChangeListener {
+
+    // Whether serialized bodies are cached at all
+    @Value("${shop.product-body-cache.enabled:true}")
+    private boolean enabled;
+
+    // Upper bound on the bytes held by all cached bodies, JSON and gzip together
+    @Value("${shop.product-body-cache.maximum-bytes:67108864}")
+    private long maximumBytes;
+
+    // Whether a gzip-compressed copy is kept next to the JSON
+    @Value("${shop.product-body-cache.gzip:true}")
+    private boolean gzip;
+
+    // Bodies smaller than this are not worth compressing
+    @Value("${shop.product-body-cache.gzip-min-bytes:2048}")
+    private int gzipMinBytes;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, Body> bodies;
+
+    // Builds the body cache from the configured limits
+    @PostConstruct
+    void initCache() {
+        bodies = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher((String userId, Body body) -> body.size())
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, bodies, "shop.product.body");
+    }
+
+    /**
+     * Returns the cached body of a user's product list if it was built at the given catalog version.
+     *
+     * @param userId the user ID
+     * @param version the user's current catalog version
+     * @return the body, or null if none is cached for that version
+     */
+    public Body getIfCurrent(final String userId, final long version) {
+        if (!enabled) {
+            return null;
+        }
+        Body body = bodies.getIfPresent(userId);
+        return body != null && body.version == version ? body : null;
+    }
+
+    /**
+     * Serializes a user's product list response and caches it for the given catalog version.
+     * A body cached meanwhile for a later version is kept.
+     *
+     * @param userId the user ID
+     * @param version the catalog version read before the product list was retrieved
+     * @param response the product list response
+     * @return the serialized body
+     * @throws JsonProcessingException if the response cannot be serialized
+     */
+    public Body put(final String userId, final long version, final ResponseDTO<ProductDTO> response)
+            throws JsonProcessingException {
+        byte[] json = objectMapper.writeValueAsBytes(response);
+        Body body = new Body(version, json, gzip && json.length >= gzipMinBytes ? compress(json) : null);
+        if (enabled) {
+            bodies.asMap().merge(userId, body, (cached, built) -> cached.version > built.version ? cached : built);
+        }
+        return body;
+    }
+
+    // Drops the user's body as soon as a write changes the user's products
+    @Override
+    public void onProductChange(final ProductChange change) {
+        bodies.invalidate(change.getEntity().getUserId());
+    }
+
+    private static byte[] compress(final byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A serialized product list response and the catalog version it was built at.
+     */
+    @Getter
+    public static final class Body {
+        private final long version;
+        private final byte[] json;
+        private final byte[] gzip;  // Null when the JSON is too small to compress or compression is off
+
+        private Body(long version, byte[] json, byte[] gzip) {
+            this.version = version;
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        private int size() {
+            return json.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+}
@@ -3,31 +3,47 @@ package com.example.shop.controller;
 import com.example.shop.dto.ResponseDTO;
 import com.example.shop.dto.UserDTO;
 import com.example.shop.model.UserEntity;
+import com.example.shop.security.PasswordHasher;
 import com.example.shop.security.TokenProvider;
 import com.example.shop.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * UserController handles requests related to User resource.
+ * Sign-up and sign-in hash passwords with BCrypt on the PasswordHasher's bounded pool, so the
+ * handlers return futures and release the servlet thread while hashing. When the pool is saturated
+ * the request is answered immediately with 503 Service Unavailable.
  */
 @Slf4j
 @RestController
 @RequestMapping("/users")
 public class UserController {
+    // Seconds a rejected client is asked to wait before retrying
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     @Autowired
     private UserService userService;
 
     @Autowired
     private TokenProvider tokenProvider;
-    private PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+
+    @Autowired
+    private PasswordHasher passwordHasher;
 
     /**
      * Creates a new user
@@ -35,13 +51,22 @@ public class UserController {
      * @return ResponseEntity containing the created user's data or an error response
      */
     @PostMapping("/signup")
-    public ResponseEntity<?> createUser(@RequestBody UserDTO userDTO) {
+    public CompletableFuture<ResponseEntity<?>> createUser(@RequestBody UserDTO userDTO) {
+        try {
+            return passwordHasher.submit(() -> signup(userDTO));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(busy());
+        }
+    }
+
+    // Hashes the password and adds the user; runs on the password hashing pool
+    private ResponseEntity<?> signup(UserDTO userDTO) {
         try {
             // Map UserDTO to UserEntity and add the user to the database
             UserEntity userEntity = UserEntity.builder()
                     .email(userDTO.getEmail())
                     .username(userDTO.getUsername())
-                    .password(passwordEncoder.encode(userDTO.getPassword()))
+                    .password(passwordHasher.getEncoder().encode(userDTO.getPassword()))
                     .build();
 
             UserEntity createdUser = userService.addUser(userEntity);
@@ -67,12 +92,21 @@ public class UserController {
      * @return ResponseEntity containing the authenticated user's data or an error response
      */
     @PostMapping("/signin")
-    public ResponseEntity<?> authenticate(@RequestBody UserDTO userDTO) {
+    public CompletableFuture<ResponseEntity<?>> authenticate(@RequestBody UserDTO userDTO) {
+        try {
+            return passwordHasher.submit(() -> signin(userDTO));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(busy());
+        }
+    }
+
+    // Checks the credentials and issues a token; runs on the password hashing pool
+    private ResponseEntity<?> signin(UserDTO userDTO) {
         // Check if the user credentials are valid
         UserEntity user = userService.getUserByCredentials(
                 userDTO.getEmail(),
                 userDTO.getPassword(),
-                passwordEncoder
+                passwordHasher.getEncoder()
         );
 
         if (user != null) {
@@ -94,4 +128,32 @@ public class UserController {
             return ResponseEntity.badRequest().body(responseDTO);
         }
     }
+
+    /**
+     * Checks whether an email is still available for sign-up
+     * @param email the email to check
+     * @return ResponseEntity containing true if the email can be registered, or an error response
+     */
+    @GetMapping("/email-available")
+    public ResponseEntity<?> isEmailAvailable(@RequestParam String email) {
+        try {
+            List<Boolean> list = new ArrayList<>();
+            list.add(userService.isEmailAvailable(email));
+            ResponseDTO<Boolean> responseDTO = ResponseDTO.<Boolean>builder().data(list).build();
+            return ResponseEntity.ok().body(responseDTO);
+        } catch (Exception e) {
+            ResponseDTO responseDTO = ResponseDTO.builder().errorMessage(e.getMessage()).build();
+            return ResponseEntity.badRequest().body(responseDTO);
+        }
+    }
+
+    // Builds the response sent when the password hashing pool cannot take more work
+    private static ResponseEntity<?> busy() {
+        ResponseDTO responseDTO = ResponseDTO.builder()
+                .errorMessage("Too many requests, please try again later")
+                .build();
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .body(responseDTO);
+    }
 }
@@ -0,0 +1,20 @@
+package com.example.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Data transfer object for representing the counters of a cache.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class CacheStatsDTO {
+    private long size;          // Number of entries currently cached
+    private long hitCount;      // Lookups answered from the cache
+    private long missCount;     // Lookups that had to load the value
+    private long evictionCount; // Entries evicted by the size or time limit
+}
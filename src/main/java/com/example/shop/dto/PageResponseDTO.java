@@ -0,0 +1,29 @@
+package com.example.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data transfer object for representing one page of a paginated response.
+ * The nextCursor is passed back as the cursor parameter to fetch the following page,
+ * and is null when there are no more pages.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class PageResponseDTO<T> {
+
+    // The data of the current page
+    private List<T> data;
+
+    // Opaque cursor of the next page, or null on the last page
+    private String nextCursor;
+
+    // Error message to be included in the response in case of an error
+    private String errorMessage;
+}
@@ -0,0 +1,23 @@
+package com.example.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data transfer object for representing a batch of product writes.
+ * Creates are applied first, then updates, then deletes, all in one transaction.
+ * Deletes only need the product ID.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductBatchRequestDTO {
+    private List<ProductDTO> create; // Products to create
+    private List<ProductDTO> update; // Products to update, identified by ID
+    private List<ProductDTO> delete; // Products to delete, identified by ID
+}
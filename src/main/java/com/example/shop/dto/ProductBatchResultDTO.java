@@ -0,0 +1,47 @@
+package com.example.shop.dto;
+
+import com.example.shop.service.ProductBatchItem;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Locale;
+
+/**
+ * Data transfer object for representing the outcome of one operation of a product batch.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductBatchResultDTO {
+
+    private String operation;    // create, update or delete
+    private int index;           // Position of the operation within its list in the request
+    private String status;       // ok, not_found or invalid
+    private ProductDTO product;  // The product after the operation, when it succeeded
+    private String errorMessage; // Reason the operation was skipped, when it did not succeed
+
+    /**
+     * Constructor for creating a ProductBatchResultDTO from a ProductBatchItem.
+     *
+     * @param item the ProductBatchItem to be converted into a ProductBatchResultDTO
+     */
+    public ProductBatchResultDTO(final ProductBatchItem item) {
+        switch (item.getOperation()) {
+            case CREATED:
+                this.operation = "create";
+                break;
+            case UPDATED:
+                this.operation = "update";
+                break;
+            default:
+                this.operation = "delete";
+        }
+        this.index = item.getIndex();
+        this.status = item.getStatus().name().toLowerCase(Locale.ROOT);
+        this.product = item.getEntity() == null ? null : new ProductDTO(item.getEntity());
+        this.errorMessage = item.getErrorMessage();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Data transfer object for representing the outcome of a bulk product deletion.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductBulkDeleteDTO {
+    private int deleted;    // Number of products actually deleted
+    private long version;   // Catalog version of the user after the deletion
+    private String epoch;   // Run of the server the version belongs to; versions of other epochs are unrelated
+}
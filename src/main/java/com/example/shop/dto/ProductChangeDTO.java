@@ -0,0 +1,40 @@
+package com.example.shop.dto;
+
+import com.example.shop.service.ProductChange;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Locale;
+
+/**
+ * Data transfer object for representing a single write to a user's products.
+ * Returned instead of the full product list when a client asks for delta responses,
+ * so that it can patch its local copy and remember the catalog version it now matches.
+ * Catalog versions restart when the server does, so a delta only applies to a copy of the same epoch.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductChangeDTO {
+
+    private String change;      // Kind of write: created, updated or deleted
+    private ProductDTO product; // The affected product; only the ID is meaningful for deletions
+    private long version;       // Catalog version of the user after the write
+    private String epoch;       // Run of the server the version belongs to; versions of other epochs are unrelated
+
+    /**
+     * Constructor for creating a ProductChangeDTO from a ProductChange.
+     *
+     * @param change the ProductChange to be converted into a ProductChangeDTO
+     * @param epoch the epoch of the catalog versions
+     */
+    public ProductChangeDTO(final ProductChange change, final String epoch) {
+        this.change = change.getType().name().toLowerCase(Locale.ROOT);
+        this.product = new ProductDTO(change.getEntity());
+        this.version = change.getVersion();
+        this.epoch = epoch;
+    }
+}
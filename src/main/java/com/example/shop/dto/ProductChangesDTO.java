@@ -0,0 +1,42 @@
+package com.example.shop.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Data transfer object for representing the changes to a user's products since a change log sequence.
+ * The since token is passed back as the since parameter of the next request. When resync is true the
+ * requested position is no longer available: the client retrieves the full product list and continues
+ * from the since token.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductChangesDTO {
+
+    // The changes after the requested sequence, oldest first
+    private List<ProductLogEntryDTO> data;
+
+    // Sequence to request the following changes from
+    private long seq;
+
+    // Log epoch the sequence belongs to; sequences of other epochs are unrelated
+    private String epoch;
+
+    // Token to pass as the since parameter of the next request, the epoch and the sequence
+    private String since;
+
+    // Whether further changes are available right away
+    private boolean more;
+
+    // Whether the client has to retrieve the full product list instead
+    private boolean resync;
+
+    // Error message to be included in the response in case of an error
+    private String errorMessage;
+}
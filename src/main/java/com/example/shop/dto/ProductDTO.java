@@ -20,6 +20,7 @@ public class ProductDTO {
     private String title;   // Title or name of the product
     private String material;// Material used to make the product
     private Double price;   // Price of the product
+    private Long version;   // Version of the product, sent back in If-Match to update it conditionally
 
     /**
      * Constructor for creating a ProductDTO from a ProductEntity.
@@ -31,6 +32,7 @@ public class ProductDTO {
         this.title = entity.getTitle();
         this.material = entity.getMaterial();
         this.price = entity.getPrice();
+        this.version = entity.getVersion();
     }
 
     /**
@@ -45,6 +47,7 @@ public class ProductDTO {
                 .title(dto.getTitle())
                 .material(dto.getMaterial())
                 .price(dto.getPrice())
+                .version(dto.getVersion())
                 .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.example.shop.dto;
+
+import com.example.shop.model.ProductChangeEntity;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Locale;
+
+/**
+ * Data transfer object for representing one entry of a user's product change log.
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductLogEntryDTO {
+
+    private long seq;           // Position in the user's change log
+    private String change;      // Kind of write: created, updated or deleted
+    private ProductDTO product; // The product after the write; only the ID is set for deletions
+
+    /**
+     * Constructor for creating a ProductLogEntryDTO from a ProductChangeEntity.
+     *
+     * @param entry the change log entry to be converted into a ProductLogEntryDTO
+     */
+    public ProductLogEntryDTO(final ProductChangeEntity entry) {
+        this.seq = entry.getSeq();
+        this.change = entry.getType().toLowerCase(Locale.ROOT);
+        this.product = ProductDTO.builder()
+                .id(entry.getProductId())
+                .title(entry.getTitle())
+                .material(entry.getMaterial())
+                .price(entry.getPrice())
+                .version(entry.getVersion())
+                .build();
+    }
+}
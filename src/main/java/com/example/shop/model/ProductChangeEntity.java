@@ -0,0 +1,54 @@
+package com.example.shop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+@Entity
+// Change log reads seek by user and sequence; compaction finds a product's earlier entries
+@Table(name = "product_change", indexes = {
+        @Index(name = "idx_product_change_user_seq", columnList = "user_id, seq", unique = true),
+        @Index(name = "idx_product_change_user_product", columnList = "user_id, product_id, seq")
+})
+// Lombok annotations to generate boilerplate code
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class ProductChangeEntity {
+
+    // Primary key of the change log entry, issued by TimeOrderedIds
+    @Id
+    @GeneratedValue(generator = "time-ordered")
+    @GenericGenerator(name = "time-ordered", strategy = "com.example.shop.model.TimeOrderedIdGenerator")
+    private String id;
+
+    // ID of the user whose products changed
+    private String userId;
+
+    // Position in the user's change log, increasing by one with every change
+    private Long seq;
+
+    // CREATED, UPDATED or DELETED, or COMPACTED for the entry marking where compaction dropped tombstones
+    private String type;
+
+    // ID of the changed product
+    private String productId;
+
+    // State of the product after the change; empty for deletions
+    private String title;
+    private String material;
+    private Double price;
+    private Long version;
+
+    // Time the change was logged, in epoch milliseconds
+    private Long createdAt;
+}
@@ -9,10 +9,17 @@ import org.hibernate.annotations.GenericGenerator;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
-@Table(name = "product")
+// Composite indexes backing the keyset-paginated listing, one per supported sort order
+@Table(name = "product", indexes = {
+        @Index(name = "idx_product_user_id", columnList = "user_id, id"),
+        @Index(name = "idx_product_user_title", columnList = "user_id, title, id"),
+        @Index(name = "idx_product_user_price", columnList = "user_id, price, id")
+})
 // Lombok annotations to generate boilerplate code
 @Builder
 @NoArgsConstructor
@@ -20,10 +27,10 @@ import javax.persistence.Table;
 @Data
 public class ProductEntity {
 
-    // Primary key for the ProductEntity table
+    // Primary key for the ProductEntity table, issued by TimeOrderedIds
     @Id
-    @GeneratedValue(generator = "system-uuid")
-    @GenericGenerator(name = "system-uuid", strategy = "uuid")
+    @GeneratedValue(generator = "time-ordered")
+    @GenericGenerator(name = "time-ordered", strategy = "com.example.shop.model.TimeOrderedIdGenerator")
     private String id;
 
     // ID of the user who posted the product
@@ -37,4 +44,8 @@ public class ProductEntity {
 
     // Price of the product
     private Double price;
+
+    // Optimistic lock version, advanced by every update of the product
+    @Version
+    private Long version;
 }
@@ -0,0 +1,39 @@
+package com.example.shop.model;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Hibernate identifier generator handing out the keys of TimeOrderedIds.
+ * Hibernate creates identifier generators itself, so the application's TimeOrderedIds instance is
+ * passed in through the Hibernate setting named by IDS_SETTING.
+ */
+public class TimeOrderedIdGenerator implements IdentifierGenerator, Configurable {
+
+    // Hibernate setting holding the TimeOrderedIds instance, put there by IdGeneratorConfig
+    public static final String IDS_SETTING = "shop.ids.generator";
+
+    private TimeOrderedIds ids;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        Object setting = serviceRegistry.getService(ConfigurationService.class).getSettings().get(IDS_SETTING);
+        if (!(setting instanceof TimeOrderedIds)) {
+            throw new MappingException("Hibernate setting " + IDS_SETTING + " does not hold a TimeOrderedIds instance");
+        }
+        ids = (TimeOrderedIds) setting;
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return ids.newId();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.shop.model;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the primary keys of products and users.
+ *
+ * When time ordering is enabled, keys are 64-bit snowflake IDs: 41 bits of milliseconds since 2023-01-01, 10 bits of worker
+ * ID and a 12-bit sequence within the millisecond, rendered as 13 characters of lower-case Crockford
+ * base32. The text sorts like the number, so new rows are appended at the end of the primary key index
+ * instead of landing at random pages, and the key is 13 bytes instead of the 32 of a hex UUID.
+ * The clock and sequence live in one AtomicLong advanced by compare-and-set, so threads never block
+ * each other; when the clock goes back or a millisecond runs out of sequence numbers, IDs continue
+ * from the last one issued, so they never repeat or go backwards from one generator.
+ *
+ * The worker ID must differ between instances writing to the same database. Keys remain strings, so
+ * the 32-character hex UUIDs of existing rows stay valid next to the new ones.
+ *
+ * One instance is created from the configuration by IdGeneratorConfig and shared by everything that
+ * issues keys, Hibernate's TimeOrderedIdGenerator included.
+ */
+public final class TimeOrderedIds {
+
+    // 2023-01-01T00:00:00Z; 41 bits of milliseconds from there last until 2092
+    private static final long EPOCH_MILLIS = Instant.parse("2023-01-01T00:00:00Z").toEpochMilli();
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    // Length of a time-ordered ID: 13 base32 digits cover 65 bits
+    public static final int LENGTH = 13;
+
+    // Length of a key from the former UUID generator
+    public static final int UUID_LENGTH = 32;
+
+    private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+
+    // Milliseconds since the epoch and sequence of the last issued ID, as (millis << SEQUENCE_BITS) | sequence
+    private final AtomicLong last = new AtomicLong();
+
+    private final boolean timeOrdered;
+    private final long workerId;
+
+    /**
+     * Creates a key generator.
+     *
+     * @param timeOrdered true for time-ordered IDs, false for hex UUIDs
+     * @param workerId the worker ID embedded in every time-ordered ID, between 0 and 1023; ignored for hex UUIDs
+     * @throws IllegalArgumentException if time-ordered IDs are chosen and the worker ID is out of range
+     */
+    public TimeOrderedIds(final boolean timeOrdered, final long workerId) {
+        if (timeOrdered && (workerId < 0 || workerId > MAX_WORKER_ID)) {
+            throw new IllegalArgumentException("Worker ID must be between 0 and " + MAX_WORKER_ID);
+        }
+        this.timeOrdered = timeOrdered;
+        this.workerId = workerId;
+    }
+
+    /**
+     * Returns the worker ID embedded in generated IDs.
+     *
+     * @return the worker ID
+     */
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * Checks whether new rows get time-ordered IDs.
+     *
+     * @return true for time-ordered IDs, false for hex UUIDs
+     */
+    public boolean isTimeOrdered() {
+        return timeOrdered;
+    }
+
+    /**
+     * Returns a new primary key in the configured format.
+     *
+     * @return the new key
+     */
+    public String newId() {
+        return timeOrdered ? format(next()) : UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * Checks whether a key is a hex UUID rather than a time-ordered ID.
+     *
+     * @param id the key
+     * @return true for a 32-character key
+     */
+    public static boolean isLegacy(final String id) {
+        return id != null && id.length() == UUID_LENGTH;
+    }
+
+    /**
+     * Returns a new time-ordered ID as a number.
+     *
+     * @return the ID, larger than every ID returned before by this generator
+     */
+    public long next() {
+        while (true) {
+            long last = this.last.get();
+            long now = System.currentTimeMillis() - EPOCH_MILLIS;
+            long lastMillis = last >>> SEQUENCE_BITS;
+
+            long next;
+            if (now > lastMillis) {
+                next = now << SEQUENCE_BITS;
+            } else {
+                // Same millisecond, a clock that went back, or an exhausted sequence running ahead of the clock
+                next = last + 1;
+            }
+            if (this.last.compareAndSet(last, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                return (millis << (WORKER_BITS + SEQUENCE_BITS)) | (workerId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * Renders a time-ordered ID as fixed-width base32 text that sorts like the number.
+     *
+     * @param id the ID
+     * @return the 13-character text
+     */
+    public static String format(final long id) {
+        char[] text = new char[LENGTH];
+        long value = id;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            text[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.shop.persistence;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys to shard names.
+ * Every shard is placed on the ring at a number of pseudo-random points (virtual nodes), and a key belongs
+ * to the shard owning the first point at or after the key's hash. Adding a shard therefore only moves the
+ * keys that now fall just before one of the new shard's points, about 1/N of them, and all of them move to
+ * the new shard; the keys of the other shards stay where they are.
+ */
+public final class ConsistentHashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final List<String> shards;
+
+    /**
+     * Builds a ring over the given shards.
+     *
+     * @param shards the names of the shards
+     * @param virtualNodes the number of points per shard; more points spread keys more evenly
+     * @throws IllegalArgumentException if there are no shards or virtualNodes is not positive
+     */
+    public ConsistentHashRing(final Collection<String> shards, final int virtualNodes) {
+        if (shards.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("A ring needs at least one shard and one virtual node per shard");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        for (String shard : shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    /**
+     * Returns the shard a key belongs to.
+     *
+     * @param key the key, e.g. a user ID
+     * @return the name of the shard
+     */
+    public String shardFor(final String key) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    /**
+     * Returns the shards on the ring.
+     *
+     * @return the names of the shards, in the order they were given
+     */
+    public List<String> shards() {
+        return shards;
+    }
+
+    private static long hash(final String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.shop.persistence;
+
+import com.example.shop.model.ProductChangeEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface ProductChangeRepository extends JpaRepository<ProductChangeEntity, String> {
+
+    // Highest sequence logged for the user, including the compaction marker
+    @Query("select max(c.seq) from ProductChangeEntity c where c.userId = :userId")
+    Long findLastSeq(@Param("userId") String userId);
+
+    // Sequence up to which compaction dropped the user's tombstones
+    @Query("select max(c.seq) from ProductChangeEntity c where c.userId = :userId and c.type = 'COMPACTED'")
+    Long findCompactedSeq(@Param("userId") String userId);
+
+    // The user's changes after the given sequence, oldest first; a seek on (user_id, seq)
+    @Query("select c from ProductChangeEntity c where c.userId = :userId and c.seq > :seq "
+            + "and c.type <> 'COMPACTED' order by c.seq")
+    List<ProductChangeEntity> findAfter(@Param("userId") String userId, @Param("seq") long seq, Pageable pageable);
+
+    List<ProductChangeEntity> findByUserIdOrderBySeqDesc(String userId);
+
+    // Users with entries compaction can drop: earlier entries of a product logged again since,
+    // or tombstones older than the cutoff
+
+    @Query("select c.userId from ProductChangeEntity c where c.type <> 'COMPACTED' "
+            + "group by c.userId having count(c) > count(distinct c.productId)")
+    List<String> findUserIdsWithSupersededChanges();
+
+    @Query("select distinct c.userId from ProductChangeEntity c where c.type = 'DELETED' and c.createdAt < :cutoff")
+    List<String> findUserIdsWithTombstonesBefore(@Param("cutoff") long cutoff);
+}
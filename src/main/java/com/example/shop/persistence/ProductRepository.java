@@ -1,16 +1,137 @@
 package com.example.shop.persistence;
 
 import com.example.shop.model.ProductEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface ProductRepository extends JpaRepository<ProductEntity, String> {
 
     List<ProductEntity> findByUserId(String userId);
 
+    List<ProductEntity> findByUserIdAndIdIn(String userId, Collection<String> ids);
+
+    Optional<ProductEntity> findByIdAndUserId(String id, String userId);
+
+    // Single-statement updates of a product's editable fields. The user ID in the WHERE clause makes
+    // a product of another user look like a missing one, and the version condition of the first
+    // query turns a concurrent edit into zero updated rows instead of a lost update. Both return
+    // the number of updated rows and advance the version, as Hibernate does for a managed update.
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update ProductEntity p set p.title = :title, p.material = :material, p.price = :price, "
+            + "p.version = p.version + 1 "
+            + "where p.id = :id and p.userId = :userId and p.version = :version")
+    int updateIfVersion(@Param("id") String id,
+                        @Param("userId") String userId,
+                        @Param("version") Long version,
+                        @Param("title") String title,
+                        @Param("material") String material,
+                        @Param("price") Double price);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update ProductEntity p set p.title = :title, p.material = :material, p.price = :price, "
+            + "p.version = p.version + 1 "
+            + "where p.id = :id and p.userId = :userId")
+    int updateOwned(@Param("id") String id,
+                    @Param("userId") String userId,
+                    @Param("title") String title,
+                    @Param("material") String material,
+                    @Param("price") Double price);
+
+    // Set-based delete of the user's products with the given IDs, one statement however many IDs are
+    // given and without loading the rows first. IDs of missing products or of other users' products
+    // are ignored; the number of deleted rows is returned.
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from ProductEntity p where p.userId = :userId and p.id in :ids")
+    int deleteOwned(@Param("userId") String userId, @Param("ids") Collection<String> ids);
+
+    // Insert of a product whose ID was assigned by the application, at version 0. Used by the
+    // write-behind writer, which applies creates that were acknowledged before reaching the database.
+    @Transactional
+    @Modifying
+    @Query(value = "insert into product (id, user_id, title, material, price, version) "
+            + "values (:id, :userId, :title, :material, :price, 0)", nativeQuery = true)
+    int insertNew(@Param("id") String id,
+                  @Param("userId") String userId,
+                  @Param("title") String title,
+                  @Param("material") String material,
+                  @Param("price") Double price);
+
+    // Lookups and re-keying of products that still have a 32-character key from the UUID generator
+    @Query("select distinct p.userId from ProductEntity p where length(p.id) = 32")
+    List<String> findUserIdsWithLegacyIds();
+
+    @Query("select p from ProductEntity p where p.userId = :userId and length(p.id) = 32")
+    List<ProductEntity> findWithLegacyIdsByUserId(@Param("userId") String userId);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "update product set id = :newId where id = :id and user_id = :userId", nativeQuery = true)
+    int changeId(@Param("id") String id, @Param("userId") String userId, @Param("newId") String newId);
+
     // Custom query to retrieve a list of products for a given user ID:
     // @Query(value = "select * from Product p where p.userId = ?1",
     //          nativeQuery = true)
-}
\ No newline at end of file
+
+    // Keyset pagination queries. Each sort order is (key, id) so that rows sharing the same key
+    // still have a stable position, and every "after" query seeks past the (key, id) of the last
+    // row of the previous page instead of skipping rows with an offset. Null keys sort first.
+    // The Pageable argument only carries the page size; the order is fixed by the query.
+
+    @Query("select p from ProductEntity p where p.userId = :userId order by p.id asc")
+    List<ProductEntity> findPageOrderById(@Param("userId") String userId, Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId and p.id > :id order by p.id asc")
+    List<ProductEntity> findPageOrderByIdAfter(@Param("userId") String userId,
+                                               @Param("id") String id,
+                                               Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "order by p.title asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByTitle(@Param("userId") String userId, Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "and (p.title > :title or (p.title = :title and p.id > :id)) "
+            + "order by p.title asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByTitleAfter(@Param("userId") String userId,
+                                                  @Param("title") String title,
+                                                  @Param("id") String id,
+                                                  Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "and ((p.title is null and p.id > :id) or p.title is not null) "
+            + "order by p.title asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByTitleAfterNull(@Param("userId") String userId,
+                                                      @Param("id") String id,
+                                                      Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "order by p.price asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByPrice(@Param("userId") String userId, Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "and (p.price > :price or (p.price = :price and p.id > :id)) "
+            + "order by p.price asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByPriceAfter(@Param("userId") String userId,
+                                                  @Param("price") Double price,
+                                                  @Param("id") String id,
+                                                  Pageable pageable);
+
+    @Query("select p from ProductEntity p where p.userId = :userId "
+            + "and ((p.price is null and p.id > :id) or p.price is not null) "
+            + "order by p.price asc nulls first, p.id asc")
+    List<ProductEntity> findPageOrderByPriceAfterNull(@Param("userId") String userId,
+                                                      @Param("id") String id,
+                                                      Pageable pageable);
+}
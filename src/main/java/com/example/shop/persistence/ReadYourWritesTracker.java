@@ -0,0 +1,85 @@
+package com.example.shop.persistence;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Remembers who wrote recently, so their own reads can skip the read replica until it has caught up.
+ * Keys are whatever identifies the writer's data, e.g. a user ID for products or an email for users.
+ * After a write is recorded for a key, reads run through readFor with that key go to the primary for
+ * the configured window, which should cover the replica's replication lag. Entries expire on their
+ * own, so the tracker stays small. Without a configured replica nothing is recorded.
+ * Writes are only tracked within this instance of the application.
+ */
+@Component
+public class ReadYourWritesTracker {
+
+    // Set while a read has to see the caller's own recent writes; read by ReplicaRoutingDataSource
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = new ThreadLocal<>();
+
+    @Value("${shop.datasource.replica.url:}")
+    private String replicaUrl;
+
+    // Time after a write during which the writer's reads go to the primary
+    @Value("${shop.datasource.read-your-writes-millis:5000}")
+    private long windowMillis;
+
+    // Upper bound on the number of recent writers remembered
+    @Value("${shop.datasource.read-your-writes-maximum-size:100000}")
+    private long maximumSize;
+
+    private boolean enabled;
+    private Cache<String, Boolean> recentWrites;
+
+    // Builds the set of recent writers from the configured window
+    @PostConstruct
+    void init() {
+        enabled = StringUtils.hasText(replicaUrl);
+        recentWrites = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Records a write, so reads for the same key go to the primary for the configured window.
+     *
+     * @param key the key identifying the written data
+     */
+    public void recordWrite(final String key) {
+        if (enabled && key != null) {
+            recentWrites.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Runs a read, on the primary if a write was recorded for the key within the window.
+     *
+     * @param key the key identifying the data read
+     * @param read the read to run
+     * @return the result of the read
+     */
+    public <T> T readFor(final String key, final Supplier<T> read) {
+        if (!enabled || key == null || recentWrites.getIfPresent(key) == null || isPrimaryRequired()) {
+            return read.get();
+        }
+        PRIMARY_REQUIRED.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            PRIMARY_REQUIRED.remove();
+        }
+    }
+
+    // Checks whether the current thread runs a read that must see its own writes
+    static boolean isPrimaryRequired() {
+        return PRIMARY_REQUIRED.get() != null;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.shop.persistence;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends connections of read-only transactions to the read replica and all others to the primary.
+ * Reads that must see the caller's own recent writes stay on the primary, see ReadYourWritesTracker.
+ *
+ * The routing decision is made when a connection is requested, so this data source must be wrapped in
+ * a LazyConnectionDataSourceProxy: the transaction manager asks for a connection before it marks the
+ * transaction read-only, and the proxy defers that until the first statement runs.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    // Lookup keys of the two target data sources
+    enum Target {
+        PRIMARY,
+        REPLICA
+    }
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && !ReadYourWritesTracker.isPrimaryRequired()) {
+            return Target.REPLICA;
+        }
+        return Target.PRIMARY;
+    }
+}
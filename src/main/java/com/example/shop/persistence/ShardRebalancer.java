@@ -0,0 +1,146 @@
+package com.example.shop.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+/**
+ * Moves the products and change logs of pending users to the shards the current hash ring places them on, after shards
+ * were added. Runs in the background once the application is ready, one user at a time.
+ *
+ * A user is moved while holding the user's migration write lock, so none of the user's queries run in
+ * between. The user's rows of all tables are copied to the new shard in one transaction, replacing any
+ * left over by an interrupted move. They are then deleted from the old shard in a second transaction,
+ * and only then is the user placed on the new shard. The shards are separate databases, so the two
+ * transactions cannot be one. If the application stops in between, the user is either still found on
+ * the old shard with all of its rows and copied again, or no longer found there and already complete on
+ * the new one.
+ */
+@Slf4j
+@Component
+public class ShardRebalancer {
+
+    // Whether pending users are moved in the background once the application is ready
+    @Value("${shop.sharding.rebalance.auto-start:true}")
+    private boolean autoStart;
+
+    // Pause after moving each user, to limit the load the move puts on the shards
+    @Value("${shop.sharding.rebalance.pause-millis:0}")
+    private long pauseMillis;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    // Starts moving pending users once the application serves requests
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (!autoStart || !shardRouter.isRebalancing()) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                int moved = rebalance();
+                log.info("Rebalancing moved {} users", moved);
+            } catch (Exception e) {
+                log.error("Rebalancing stopped: {}; it continues at the next start", e.getMessage(), e);
+            }
+        }, "shard-rebalancer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Moves every pending user to the shard the current ring places them on.
+     *
+     * @return the number of users moved
+     */
+    public int rebalance() {
+        int moved = 0;
+        for (String userId : new ArrayList<>(shardRouter.pendingUsers())) {
+            move(userId);
+            moved++;
+            if (pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Tables holding rows by user ID, moved together with the user
+    private static final List<String> USER_TABLES = List.of("product", "product_change");
+
+    // Copies a user's products and change log to the new shard, deletes them from the old one and switches the user over
+    private void move(final String userId) {
+        Lock lock = shardRouter.migrationLock(userId).writeLock();
+        lock.lock();
+        try {
+            if (!shardRouter.pendingUsers().contains(userId)) {
+                return;
+            }
+            String source = shardRouter.previousShardFor(userId);
+            String target = shardRouter.targetShardFor(userId);
+
+            DataSource sourceDataSource = shardRouter.shardDataSource(source);
+            JdbcTemplate sourceJdbc = new JdbcTemplate(sourceDataSource);
+            Map<String, List<Map<String, Object>>> rows = new LinkedHashMap<>();
+            for (String table : USER_TABLES) {
+                rows.put(table, sourceJdbc.queryForList("select * from " + table + " where user_id = ?", userId));
+            }
+            copy(shardRouter.shardDataSource(target), userId, rows);
+
+            // All tables go in one transaction, the change log first, so an interrupted cleanup leaves either all
+            // of the user's rows on the old shard or none; a user with only change log rows there is still pending
+            new TransactionTemplate(new DataSourceTransactionManager(sourceDataSource)).executeWithoutResult(status -> {
+                for (int i = USER_TABLES.size() - 1; i >= 0; i--) {
+                    sourceJdbc.update("delete from " + USER_TABLES.get(i) + " where user_id = ?", userId);
+                }
+            });
+            int moved = rows.values().stream().mapToInt(List::size).sum();
+
+            shardRouter.completeMigration(userId);
+            log.debug("Moved {} rows of user {} from shard {} to shard {}", moved, userId, source, target);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Replaces the user's rows of every table on the target shard with the given ones, in one transaction
+    private static void copy(final DataSource target, final String userId,
+                             final Map<String, List<Map<String, Object>>> rowsByTable) {
+        JdbcTemplate targetJdbc = new JdbcTemplate(target);
+        new TransactionTemplate(new DataSourceTransactionManager(target)).executeWithoutResult(status ->
+                rowsByTable.forEach((table, rows) -> {
+                    targetJdbc.update("delete from " + table + " where user_id = ?", userId);
+                    if (rows.isEmpty()) {
+                        return;
+                    }
+                    // Column names come from the source rows, so the copy follows the mapping without listing columns
+                    List<String> columns = new ArrayList<>(rows.get(0).keySet());
+                    String sql = "insert into " + table + " (" + String.join(", ", columns) + ") values ("
+                            + columns.stream().map(column -> "?").collect(Collectors.joining(", ")) + ")";
+                    List<Object[]> values = rows.stream()
+                            .map(row -> columns.stream().map(row::get).toArray())
+                            .collect(Collectors.toList());
+                    targetJdbc.batchUpdate(sql, values);
+                }));
+    }
+}
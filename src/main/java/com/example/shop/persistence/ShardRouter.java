@@ -0,0 +1,334 @@
+package com.example.shop.persistence;
+
+import com.example.shop.model.ProductChangeEntity;
+import com.example.shop.model.ProductEntity;
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Decides which shard holds a user's products and binds it to the thread running the user's queries.
+ * Users are placed by a consistent hash of their ID over all configured shards.
+ *
+ * When shards are added, shop.sharding.previous-shards names the shards before the change. Users whose
+ * products are still on the shard the previous ring placed them on are pending: their queries keep going
+ * to the old shard until ShardRebalancer has moved them. Pending users are found again from the data at
+ * every start, so an interrupted rebalance simply continues. While a rebalance is running, queries for
+ * a user hold the user's migration read lock, so a user is never read half moved.
+ *
+ * Without shop.sharding.enabled everything runs on the regular data source.
+ */
+@Slf4j
+@Component
+public class ShardRouter {
+
+    // Shard bound to the current thread; read by ShardRoutingDataSource
+    private static final ThreadLocal<String> CURRENT_SHARD = new ThreadLocal<>();
+
+    @Value("${shop.sharding.enabled:false}")
+    private boolean enabled;
+
+    // Number of points per shard on the hash ring
+    @Value("${shop.sharding.virtual-nodes:128}")
+    private int virtualNodes;
+
+    // Shards before the last change of shards, while their users are being moved
+    @Value("${shop.sharding.previous-shards:}")
+    private String[] previousShards;
+
+    // Whether the product and change log tables are created or updated on the additional shards at startup
+    @Value("${shop.sharding.update-schema:false}")
+    private boolean updateSchema;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Map<String, DataSource> shards;
+    private ConsistentHashRing ring;
+
+    // Ring before the last change of shards, and the users still placed by it
+    private volatile ConsistentHashRing previousRing;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebalancing;
+
+    // Held for reading by queries and for writing by the move of a user, only while rebalancing
+    private final Striped<ReadWriteLock> migrationLocks = Striped.readWriteLock(64);
+
+    // Runs the per-shard parts of scatter-gather queries
+    private ExecutorService scatterExecutor;
+
+    // Builds the ring over the configured shards and looks for users left to move
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            shards = Collections.singletonMap("default", dataSource);
+            ring = new ConsistentHashRing(shards.keySet(), 1);
+            return;
+        }
+        if (!(dataSource instanceof ShardRoutingDataSource)) {
+            throw new IllegalStateException("Sharding is enabled but the data source is not a ShardRoutingDataSource");
+        }
+
+        ShardRoutingDataSource routing = (ShardRoutingDataSource) dataSource;
+        shards = routing.getShards();
+        if (updateSchema) {
+            shards.forEach((shard, shardDataSource) -> {
+                if (!shard.equals(routing.getDefaultShard())) {
+                    updateSchema(shardDataSource);
+                }
+            });
+        }
+        ring = new ConsistentHashRing(shards.keySet(), virtualNodes);
+        scatterExecutor = Executors.newFixedThreadPool(shards.size(), new CustomizableThreadFactory("shard-query-"));
+        Gauge.builder("shop.sharding.pending.users", pending, Set::size)
+                .description("Users whose products still have to be moved to their shard")
+                .register(meterRegistry);
+
+        if (previousShards.length > 0) {
+            beginRebalance(Arrays.asList(previousShards));
+        }
+        log.info("Products are sharded over {}", shards.keySet());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scatterExecutor != null) {
+            scatterExecutor.shutdown();
+        }
+    }
+
+    // Finds the users whose products or change log entries are still on the shard the previous ring placed them on.
+    // Package-private so tests can start a rebalance on a running application.
+    void beginRebalance(final Collection<String> previous) {
+        if (!shards.keySet().containsAll(previous)) {
+            throw new IllegalStateException("Previous shards " + previous + " are not all configured");
+        }
+        ConsistentHashRing before = new ConsistentHashRing(previous, virtualNodes);
+        previousRing = before;
+        for (String shard : previous) {
+            List<String> userIds = new JdbcTemplate(shards.get(shard))
+                    .queryForList("select user_id from product where user_id is not null"
+                            + " union select user_id from product_change", String.class);
+            for (String userId : userIds) {
+                if (before.shardFor(userId).equals(shard) && !ring.shardFor(userId).equals(shard)) {
+                    pending.add(userId);
+                }
+            }
+        }
+        rebalancing = !pending.isEmpty();
+        if (rebalancing) {
+            log.info("{} users have to be moved from shards {} to their new shards", pending.size(), previous);
+        } else {
+            previousRing = null;
+            log.info("No users left to move from shards {}; shop.sharding.previous-shards can be removed", previous);
+        }
+    }
+
+    /**
+     * Returns the shard currently holding a user's products.
+     *
+     * @param userId the user ID
+     * @return the name of the shard
+     */
+    public String shardFor(final String userId) {
+        ConsistentHashRing before = previousRing;
+        return before != null && pending.contains(userId) ? before.shardFor(userId) : ring.shardFor(userId);
+    }
+
+    /**
+     * Runs work on the shard holding a user's products. Transactions begun by the work, or begun earlier
+     * without running a statement yet, use that shard.
+     *
+     * @param userId the user ID
+     * @param work the work to run
+     * @return the result of the work
+     * @throws IllegalStateException if the thread is already bound to another shard
+     */
+    public <T> T forUser(final String userId, final Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+        if (!rebalancing) {
+            return onShard(shardFor(userId), work);
+        }
+        Lock lock = migrationLock(userId).readLock();
+        lock.lock();
+        try {
+            return onShard(shardFor(userId), work);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs work on the given shard.
+     *
+     * @param shard the name of the shard
+     * @param work the work to run
+     * @return the result of the work
+     * @throws IllegalStateException if the thread is already bound to another shard
+     */
+    public <T> T onShard(final String shard, final Supplier<T> work) {
+        String bound = CURRENT_SHARD.get();
+        if (bound != null) {
+            if (!bound.equals(shard)) {
+                throw new IllegalStateException("Cannot use shard " + shard + " while bound to shard " + bound);
+            }
+            return work.get();
+        }
+        CURRENT_SHARD.set(shard);
+        try {
+            return work.get();
+        } finally {
+            CURRENT_SHARD.remove();
+        }
+    }
+
+    /**
+     * Runs a query on every shard in parallel and gathers the results, for queries spanning all users.
+     *
+     * @param query the query to run on each shard
+     * @return the results, in the order of the shards
+     * @throws RuntimeException if the query fails on any shard
+     */
+    public <T> List<T> scatterGather(final Supplier<T> query) {
+        if (!enabled) {
+            return Collections.singletonList(query.get());
+        }
+
+        List<String> names = ring.shards();
+        List<Future<T>> futures = new ArrayList<>(names.size());
+        for (String shard : names) {
+            futures.add(scatterExecutor.submit(() -> onShard(shard, query)));
+        }
+
+        List<T> results = new ArrayList<>(names.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                futures.forEach(future -> future.cancel(true));
+                throw new RuntimeException("Error querying shard " + names.get(i) + ": " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while querying shards", e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the names of all shards.
+     *
+     * @return the shard names, the default shard first
+     */
+    public List<String> shards() {
+        return ring.shards();
+    }
+
+    /**
+     * Checks whether users are still being moved after shards were added.
+     *
+     * @return true while pending users remain
+     */
+    public boolean isRebalancing() {
+        return rebalancing;
+    }
+
+    // Users still placed by the previous ring
+    Set<String> pendingUsers() {
+        return Collections.unmodifiableSet(pending);
+    }
+
+    // Shard the previous ring placed a user on
+    String previousShardFor(final String userId) {
+        return previousRing.shardFor(userId);
+    }
+
+    // Shard the current ring places a user on
+    String targetShardFor(final String userId) {
+        return ring.shardFor(userId);
+    }
+
+    DataSource shardDataSource(final String shard) {
+        return shards.get(shard);
+    }
+
+    ReadWriteLock migrationLock(final String userId) {
+        return migrationLocks.get(userId);
+    }
+
+    // Places a moved user by the current ring. Called while holding the user's migration write lock.
+    void completeMigration(final String userId) {
+        pending.remove(userId);
+        if (pending.isEmpty()) {
+            rebalancing = false;
+            previousRing = null;
+            log.info("All users moved; shop.sharding.previous-shards can be removed");
+        }
+    }
+
+    // Shard bound to the current thread, or null for the default shard
+    static String currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    // Creates the product and change log tables and their indexes on a shard, or adds what is missing,
+    // from the entity mappings
+    private static void updateSchema(final DataSource shardDataSource) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DATASOURCE, shardDataSource)
+                .build();
+        try {
+            Metadata metadata = new MetadataSources(registry)
+                    .addAnnotatedClass(ProductEntity.class)
+                    .addAnnotatedClass(ProductChangeEntity.class)
+                    .getMetadataBuilder()
+                    .applyImplicitNamingStrategy(new SpringImplicitNamingStrategy())
+                    .applyPhysicalNamingStrategy(new CamelCaseToUnderscoresNamingStrategy())
+                    .build();
+            new SchemaUpdate().execute(EnumSet.of(TargetType.DATABASE), metadata);
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
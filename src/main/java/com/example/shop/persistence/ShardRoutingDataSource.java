@@ -0,0 +1,93 @@
+package com.example.shop.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Data source spreading the product table over several databases (shards).
+ * A connection goes to the shard ShardRouter has bound to the current thread, or to the default shard
+ * when none is bound; the default shard is the application's regular data source and also holds
+ * everything that is not sharded, such as the users.
+ *
+ * Physical connections are only requested when the first statement runs, so a transaction that begins
+ * before the shard is bound still uses the bound shard.
+ */
+@Slf4j
+public class ShardRoutingDataSource extends LazyConnectionDataSourceProxy implements DisposableBean {
+
+    private final String defaultShard;
+    private final Map<String, DataSource> shards;
+
+    /**
+     * Builds the routing over the default data source and the additional shards.
+     *
+     * @param defaultShard the name of the default shard
+     * @param defaultDataSource the application's regular data source
+     * @param additionalShards the data sources of the other shards, keyed by shard name
+     */
+    public ShardRoutingDataSource(final String defaultShard, final DataSource defaultDataSource,
+                                  final Map<String, DataSource> additionalShards) {
+        Map<String, DataSource> all = new LinkedHashMap<>();
+        all.put(defaultShard, defaultDataSource);
+        all.putAll(additionalShards);
+        this.defaultShard = defaultShard;
+        this.shards = Collections.unmodifiableMap(all);
+
+        Router router = new Router();
+        router.setTargetDataSources(new HashMap<>(all));
+        router.setDefaultTargetDataSource(defaultDataSource);
+        // An unknown shard name is a bug, not a reason to write to the default shard
+        router.setLenientFallback(false);
+        router.afterPropertiesSet();
+        setTargetDataSource(router);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Returns the name of the default shard.
+     *
+     * @return the shard used when none is bound
+     */
+    public String getDefaultShard() {
+        return defaultShard;
+    }
+
+    /**
+     * Returns the data source of every shard, the default shard first.
+     *
+     * @return the data sources keyed by shard name
+     */
+    public Map<String, DataSource> getShards() {
+        return shards;
+    }
+
+    // Closes the connection pools, which are no longer closed as beans of their own once wrapped
+    @Override
+    public void destroy() {
+        for (Map.Entry<String, DataSource> shard : shards.entrySet()) {
+            if (shard.getValue() instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) shard.getValue()).close();
+                } catch (Exception e) {
+                    log.warn("Failed to close shard {}: {}", shard.getKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Picks the target by the shard bound to the current thread
+    private static final class Router extends AbstractRoutingDataSource {
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return ShardRouter.currentShard();
+        }
+    }
+}
@@ -2,8 +2,15 @@ package com.example.shop.persistence;
 
 import com.example.shop.model.UserEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 /**
  * Repository for performing database operations on UserEntity objects.
  */
@@ -34,4 +41,13 @@ public interface UserRepository extends JpaRepository<UserEntity, String> {
      * @return the UserEntity if found and the password matches, otherwise null
      */
     UserEntity findByEmailAndPassword(String email, String password);
+
+    /**
+     * Streams the emails of all users. Must be consumed inside a transaction and closed afterwards.
+     *
+     * @return a stream of all registered emails
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select u.email from UserEntity u")
+    Stream<String> streamAllEmails();
 }
\ No newline at end of file
@@ -22,6 +22,9 @@ import java.io.IOException;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    // Builds no per-request state, so a single instance serves all requests
+    private static final WebAuthenticationDetailsSource DETAILS_SOURCE = new WebAuthenticationDetailsSource();
+
     @Autowired
     private TokenProvider tokenProvider;
 
@@ -30,11 +33,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
         try {
             String token = parseBearerToken(request);
-            log.info("Parsed token: {}", token);
 
             if (token != null && !token.equalsIgnoreCase("null")) {
                 String userId = tokenProvider.validateAndGetUserId(token);
-                log.info("Authenticated user ID: {}", userId);
+                if (log.isDebugEnabled()) {
+                    log.debug("Authenticated user ID: {}", userId);
+                }
 
                 AbstractAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(
                         userId,
@@ -42,15 +46,15 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                         AuthorityUtils.NO_AUTHORITIES
                 );
 
-                authenticationToken.setDetails(new WebAuthenticationDetailsSource()
-                        .buildDetails(request));
+                authenticationToken.setDetails(DETAILS_SOURCE.buildDetails(request));
 
                 SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
                 securityContext.setAuthentication(authenticationToken);
                 SecurityContextHolder.setContext(securityContext);
             }
         } catch (Exception e) {
-            logger.error("Error authenticating user: {}", e);
+            // Invalid or expired tokens are routine; the request simply continues unauthenticated
+            log.debug("Error authenticating user: {}", e.getMessage());
         }
 
         filterChain.doFilter(request, response);
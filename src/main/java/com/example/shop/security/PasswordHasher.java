@@ -0,0 +1,161 @@
+package com.example.shop.security;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs password hashing work on its own bounded thread pool, away from the servlet threads.
+ * A burst of sign-ins can occupy at most the configured number of hashing threads and queue slots;
+ * further requests are rejected immediately instead of waiting for a slot, so BCrypt load cannot
+ * starve the rest of the application. The BCrypt strength is configurable, and hashes created with
+ * a different strength are reported as needing an upgrade so they can be rehashed on the next login.
+ */
+@Slf4j
+@Component
+public class PasswordHasher {
+
+    // Cost factor of a BCrypt hash, e.g. 10 in $2a$10$...
+    private static final Pattern BCRYPT_COST = Pattern.compile("\\A\\$2[abxy]?\\$(\\d\\d)\\$");
+
+    // BCrypt cost factor used for new hashes
+    @Value("${shop.password.bcrypt-strength:10}")
+    private int strength;
+
+    // Number of hashing threads; 0 uses one thread per available processor
+    @Value("${shop.password.threads:0}")
+    private int threads;
+
+    // Number of hashing tasks that may wait for a thread before new ones are rejected
+    @Value("${shop.password.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private PasswordEncoder encoder;
+    private ThreadPoolExecutor executor;
+
+    // Builds the encoder and the hashing pool from the configured limits
+    @PostConstruct
+    void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("password-hasher-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        encoder = new TimedEncoder(new BCryptPasswordEncoder(strength),
+                hashTimer("encode"), hashTimer("matches"));
+
+        Gauge.builder("shop.password.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("Password hashing tasks waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("shop.password.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Password hashing tasks running")
+                .register(meterRegistry);
+
+        log.info("Password hashing uses BCrypt strength {} on {} threads with a queue of {}",
+                strength, poolSize, queueCapacity);
+    }
+
+    // Registers the hashing latency timer for one operation
+    private Timer hashTimer(String operation) {
+        return Timer.builder("shop.password.hash")
+                .description("Latency of BCrypt hashing")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    // Stops accepting hashing tasks when the application shuts down
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the encoder to use for hashing and checking passwords.
+     * Its upgradeEncoding method reports hashes whose strength differs from the configured one.
+     *
+     * @return the password encoder
+     */
+    public PasswordEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Runs a task that hashes or checks passwords on the hashing pool.
+     *
+     * @param task the task to run
+     * @return a future completed with the result of the task
+     * @throws RejectedExecutionException if all hashing threads and queue slots are taken
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    // Checks whether a stored hash was created with a strength other than the configured one
+    private boolean needsRehash(String encodedPassword) {
+        if (encodedPassword == null) {
+            return false;
+        }
+        Matcher matcher = BCRYPT_COST.matcher(encodedPassword);
+        return matcher.find() && Integer.parseInt(matcher.group(1)) != strength;
+    }
+
+    // BCrypt encoder recording the latency of every hash computation
+    private final class TimedEncoder implements PasswordEncoder {
+        private final PasswordEncoder delegate;
+        private final Timer encodeTimer;
+        private final Timer matchesTimer;
+
+        private TimedEncoder(PasswordEncoder delegate, Timer encodeTimer, Timer matchesTimer) {
+            this.delegate = delegate;
+            this.encodeTimer = encodeTimer;
+            this.matchesTimer = matchesTimer;
+        }
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            long start = System.nanoTime();
+            try {
+                return delegate.encode(rawPassword);
+            } finally {
+                encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            long start = System.nanoTime();
+            try {
+                return delegate.matches(rawPassword, encodedPassword);
+            } finally {
+                matchesTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public boolean upgradeEncoding(String encodedPassword) {
+            return needsRehash(encodedPassword);
+        }
+    }
+}
@@ -4,35 +4,102 @@
  * the user ID from a token string.
  * The generate method builds a JWT token with a payload containing the user ID, the token issuer, and expiration date.
  * The validateAndGetUserId method parses a given token string and retrieves the user ID from its payload.
+ * Tokens that were already verified are remembered, keyed by a SHA-256 digest of the token, until they expire,
+ * so a client repeating the same token is authenticated with a hash lookup instead of a full parse and verify.
  * The SECRET_KEY variable is used as the secret key for generating and validating tokens.
  */
 package com.example.shop.security;
 
 import com.example.shop.model.UserEntity;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 public class TokenProvider {
     private static final String SECRET_KEY = "mysecretkey";
 
+    // Lifetime of a generated token
+    private static final long TOKEN_VALIDITY_DAYS = 1;
+
+    // The signing key, decoded once from SECRET_KEY the same way jjwt decodes a base64 key string
+    private static final Key SIGNING_KEY = new SecretKeySpec(
+            TextCodec.BASE64.decode(SECRET_KEY), SignatureAlgorithm.HS512.getJcaName());
+
+    // The parser is fully configured here and only read afterwards, so it is shared by all requests
+    private static final JwtParser PARSER = Jwts.parser().setSigningKey(SIGNING_KEY);
+
+    // Upper bound on the number of verified tokens remembered
+    @Value("${shop.token-cache.maximum-size:100000}")
+    private long cacheMaximumSize;
+
+    // Verified tokens keyed by the SHA-256 digest of the token
+    private Cache<HashCode, VerifiedToken> verifiedTokens;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Validation latency, tagged by whether the token came from the cache, was verified, or was rejected
+    private Timer cachedTimer;
+    private Timer verifiedTimer;
+    private Timer rejectedTimer;
+
+    // Builds the verified token cache. No entry can outlive the longest token lifetime;
+    // shorter-lived entries are checked against their own expiration on every hit.
+    @PostConstruct
+    void initCache() {
+        verifiedTokens = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(TOKEN_VALIDITY_DAYS, TimeUnit.DAYS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, verifiedTokens, "shop.token.cache");
+
+        cachedTimer = validationTimer("cached");
+        verifiedTimer = validationTimer("verified");
+        rejectedTimer = validationTimer("rejected");
+    }
+
+    // Registers the validation timer for one outcome
+    private Timer validationTimer(String result) {
+        return Timer.builder("shop.token.validation")
+                .description("Latency of JWT validation")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
     /**
      * Generates a JWT token for the given user.
      *
      * @param userEntity the user entity for which to generate the token
      * @return the generated token
      */
-    public static String generate(UserEntity userEntity) {
+    public String generate(UserEntity userEntity) {
         Date expiryDate = Date.from(
-                Instant.now().plus(1, ChronoUnit.DAYS));
+                Instant.now().plus(TOKEN_VALIDITY_DAYS, ChronoUnit.DAYS));
 
         /*
         Header: {"alg": "HS512"}
@@ -47,22 +114,56 @@ public class TokenProvider {
                 .setSubject(userEntity.getId())
                 .setIssuedAt(new Date())
                 .setExpiration(expiryDate)
-                .signWith(SignatureAlgorithm.HS512, SECRET_KEY)
+                .signWith(SignatureAlgorithm.HS512, SIGNING_KEY)
                 .compact();
     }
 
     /**
      * Validates the given JWT token and returns the user ID contained within it.
+     * A token verified before is accepted from the cache as long as it has not expired.
      *
      * @param token the token to validate
      * @return the user ID contained within the token
      */
-    public static String validateAndGetUserId(String token) {
-        Claims claims = Jwts.parser()
-                .setSigningKey(SECRET_KEY)
-                .parseClaimsJws(token)
-                .getBody();
+    public String validateAndGetUserId(String token) {
+        long start = System.nanoTime();
+        Timer timer = rejectedTimer;
+        try {
+            HashCode digest = Hashing.sha256().hashString(token, StandardCharsets.UTF_8);
+
+            VerifiedToken verified = verifiedTokens.getIfPresent(digest);
+            if (verified != null) {
+                if (verified.expiresAt > System.currentTimeMillis()) {
+                    timer = cachedTimer;
+                    return verified.userId;
+                }
+                // Expired since it was cached; the full parse below rejects it
+                verifiedTokens.invalidate(digest);
+            }
+
+            Claims claims = PARSER
+                    .parseClaimsJws(token)
+                    .getBody();
+
+            // Only tokens with an expiration are cached, so the cache never extends a token's validity
+            if (claims.getExpiration() != null) {
+                verifiedTokens.put(digest, new VerifiedToken(claims.getSubject(), claims.getExpiration().getTime()));
+            }
+            timer = verifiedTimer;
+            return claims.getSubject();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // The outcome of verifying a token: its subject and the time it expires at
+    private static final class VerifiedToken {
+        private final String userId;
+        private final long expiresAt;
 
-        return claims.getSubject();
+        private VerifiedToken(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
     }
 }
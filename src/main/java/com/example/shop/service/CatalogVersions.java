@@ -0,0 +1,83 @@
+package com.example.shop.service;
+
+import com.google.common.util.concurrent.Striped;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Keeps a monotonically increasing catalog version for each user, and the per-user locks that
+ * order writes to a user's products against the components that copy them.
+ * ProductService bumps a user's version on every write to the user's products, so clients that
+ * know the version their local copy corresponds to can tell whether it is still current.
+ * Writes hold the user's write lock; anything that reads the user's products from the database and
+ * keeps a derived copy holds the read lock while doing so, so it never misses a committed write.
+ * Versions are held in memory and start from 0 for every user when the application starts, so they
+ * are only comparable together with the epoch, which is different for every start of the application.
+ */
+@Component
+public class CatalogVersions {
+
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    // Identifies this run of the application: its start time in base 36
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    // Lock stripes shared by all users; users hashing to the same stripe simply share a lock
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(64);
+
+    /**
+     * Returns the epoch the versions belong to. A version seen before a restart may be reused after
+     * it for a different catalog, so anything handed to clients must carry the epoch as well.
+     *
+     * @return the epoch of this run of the application
+     */
+    public String epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the current catalog version of a user.
+     *
+     * @param userId the user ID
+     * @return the current version, 0 if the user's catalog has not changed since startup
+     */
+    public long current(final String userId) {
+        AtomicLong version = versions.get(userId);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Advances the catalog version of a user. Must be called while holding the user's write lock.
+     *
+     * @param userId the user ID
+     * @return the new version
+     */
+    public long increment(final String userId) {
+        return versions.computeIfAbsent(userId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Returns the lock held while reading a user's products into a derived copy.
+     *
+     * @param userId the user ID
+     * @return the user's read lock
+     */
+    public Lock readLock(final String userId) {
+        return locks.get(userId).readLock();
+    }
+
+    /**
+     * Returns the lock held while writing a user's products.
+     *
+     * @param userId the user ID
+     * @return the user's write lock
+     */
+    public Lock writeLock(final String userId) {
+        return locks.get(userId).writeLock();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of one operation of a product batch. The index is the position of the operation
+ * within its create, update or delete list in the request.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductBatchItem {
+
+    // Result of a single operation
+    public enum Status {
+        OK,
+        NOT_FOUND,
+        INVALID
+    }
+
+    private final ProductChange.Type operation;
+    private final int index;
+    private final Status status;
+    private final ProductEntity entity;
+    private final String errorMessage;
+}
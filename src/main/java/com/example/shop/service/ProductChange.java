@@ -0,0 +1,25 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A single write to a user's products: the affected product and the user's catalog version
+ * after the write. For deletions the entity carries the ID of the deleted product.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductChange {
+
+    // Kind of write applied to the product
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private final Type type;
+    private final ProductEntity entity;
+    private final long version;
+}
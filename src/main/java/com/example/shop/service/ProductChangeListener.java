@@ -0,0 +1,16 @@
+package com.example.shop.service;
+
+/**
+ * Receives every write to a user's products after it has been committed.
+ * ProductService calls listeners while holding the user's write lock, in catalog version order,
+ * so implementations must be quick and must not call back into ProductService writes.
+ */
+public interface ProductChangeListener {
+
+    /**
+     * Called once for each created, updated or deleted product.
+     *
+     * @param change the committed change
+     */
+    void onProductChange(ProductChange change);
+}
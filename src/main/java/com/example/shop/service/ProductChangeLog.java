@@ -0,0 +1,557 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductChangeEntity;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.persistence.ProductChangeRepository;
+import com.example.shop.persistence.ShardRouter;
+import com.google.common.collect.Lists;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Sequenced log of every write to a user's products, so a client that reconnects can fetch what changed
+ * since the last sequence it saw instead of its whole catalog.
+ *
+ * ProductService publishes each change under the user's write lock, where it is given the next sequence
+ * of the user's log and kept in memory; a background writer inserts the logged changes into the
+ * product_change table on the user's shard in batches, and the recent entries stay in memory so most
+ * reads never touch the table. A user's sequence continues from the table after a restart. Changes
+ * logged but not yet written when the process dies are lost, like acknowledged writes queued by
+ * ProductWriteBehind; a client holding a later sequence is told to resync.
+ *
+ * While the table cannot be written, at most shop.product-change-log.max-unflushed-entries changes wait
+ * in memory. Changes beyond that are not logged: their users are marked as gaps, which makes their
+ * clients resync until a sequence has been skipped for the missing changes and recorded as the
+ * user's compaction floor, once there is room again.
+ *
+ * Compaction runs periodically: an entry is dropped once a later entry of the same product exists, so
+ * the table holds at most one entry per product, and tombstones older than the retention are dropped
+ * too, which moves the user's compaction floor past them. A client whose sequence is below the floor
+ * has missed deletions it can no longer learn about and must resync.
+ *
+ * Sequences are kept by this process only, as catalog versions are, so one instance should serve a
+ * user's writes at a time.
+ *
+ * Sequences handed to clients are qualified by the log epoch, the epoch of CatalogVersions, as a since
+ * token of the form epoch.seq. After a crash the sequence continues from the last entry written to
+ * the table, so the sequences of lost entries are given to new changes; a client holding one of them
+ * would skip those changes. A token of another epoch is therefore always answered with a resync, at
+ * the cost of one full list retrieval per client after every restart.
+ */
+@Slf4j
+@Component
+public class ProductChangeLog implements ProductChangeListener {
+
+    // Type of the entry recording the user's compaction floor
+    static final String COMPACTED = "COMPACTED";
+
+    // Whether changes are logged at all; without it delta sync is unavailable
+    @Value("${shop.product-change-log.enabled:true}")
+    private boolean enabled;
+
+    // Changes per user kept in memory once written to the table
+    @Value("${shop.product-change-log.memory-entries-per-user:64}")
+    private int memoryEntriesPerUser;
+
+    // Time written changes stay in memory before compaction drops them
+    @Value("${shop.product-change-log.memory-retention-seconds:600}")
+    private long memoryRetentionSeconds;
+
+    // Delay between two runs of the writer, and the changes it inserts per transaction
+    @Value("${shop.product-change-log.flush-millis:50}")
+    private long flushMillis;
+
+    @Value("${shop.product-change-log.flush-batch-size:1000}")
+    private int flushBatchSize;
+
+    // Interval of table compaction, and the time tombstones are kept before it drops them
+    @Value("${shop.product-change-log.compact-interval-seconds:3600}")
+    private long compactIntervalSeconds;
+
+    @Value("${shop.product-change-log.tombstone-retention-hours:168}")
+    private long tombstoneRetentionHours;
+
+    // Logged changes waiting to be written, at most; changes beyond it make their users resync
+    @Value("${shop.product-change-log.max-unflushed-entries:100000}")
+    private int maxUnflushedEntries;
+
+    // Upper bound on the changes returned by one read
+    @Value("${shop.product-change-log.max-page-size:1000}")
+    private int maxPageSize;
+
+    @Autowired
+    private ProductChangeRepository repository;
+
+    @Autowired
+    private CatalogVersions versions;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Logs of the users whose products changed or were synced recently, by user ID
+    private final ConcurrentMap<String, UserLog> logs = new ConcurrentHashMap<>();
+
+    // Users with a change that could not be logged, because their log could not be loaded or too many
+    // changes were waiting to be written
+    private final Set<String> gaps = ConcurrentHashMap.newKeySet();
+
+    // Logged changes not yet in the table. Bounded by maxUnflushedEntries, which also bounds the users'
+    // recent entries, as those beyond memoryEntriesPerUser are only kept until written.
+    private final ConcurrentLinkedQueue<Entry> unflushed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger unflushedCount = new AtomicInteger();
+
+    // Reads and writes of the table run on the primary, as the sequence must never be read behind
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService scheduler;
+    private Counter resyncs;
+    private Counter unlogged;
+
+    // Starts the writer and compaction, and registers the change log metrics
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (!enabled) {
+            log.info("Product change log is disabled");
+            return;
+        }
+
+        scheduler = Executors.newScheduledThreadPool(2, new CustomizableThreadFactory("product-change-log-"));
+        scheduler.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::compact, compactIntervalSeconds, compactIntervalSeconds, TimeUnit.SECONDS);
+
+        Gauge.builder("shop.product.changelog.unflushed", unflushedCount, AtomicInteger::get)
+                .description("Logged product changes not yet written to the table")
+                .register(meterRegistry);
+        Gauge.builder("shop.product.changelog.users", logs, Map::size)
+                .description("Users whose change log is held in memory")
+                .register(meterRegistry);
+        resyncs = Counter.builder("shop.product.changelog.resyncs")
+                .description("Change log reads answered with a full resync")
+                .register(meterRegistry);
+        unlogged = Counter.builder("shop.product.changelog.unlogged")
+                .description("Product changes not logged because too many were waiting to be written")
+                .register(meterRegistry);
+    }
+
+    // Writes out what is still in memory when the application shuts down
+    @PreDestroy
+    void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (unflushedCount.get() > 0) {
+            log.error("{} product changes could not be written to the change log", unflushedCount.get());
+        }
+    }
+
+    // Appends the change to the user's log. Runs under the user's write lock, which orders the sequence.
+    @Override
+    public void onProductChange(final ProductChange change) {
+        if (!enabled) {
+            return;
+        }
+
+        ProductEntity product = change.getEntity();
+        if (unflushedCount.get() >= maxUnflushedEntries) {
+            gaps.add(product.getUserId());
+            unlogged.increment();
+            return;
+        }
+        UserLog userLog;
+        try {
+            userLog = logFor(product.getUserId());
+        } catch (RuntimeException e) {
+            gaps.add(product.getUserId());
+            throw e;
+        }
+        closeGap(product.getUserId(), userLog);
+        boolean deleted = change.getType() == ProductChange.Type.DELETED;
+        Entry entry = new Entry(ProductChangeEntity.builder()
+                .userId(product.getUserId())
+                .seq(userLog.lastSeq + 1)
+                .type(change.getType().name())
+                .productId(product.getId())
+                .title(deleted ? null : product.getTitle())
+                .material(deleted ? null : product.getMaterial())
+                .price(deleted ? null : product.getPrice())
+                .version(deleted ? null : product.getVersion())
+                .createdAt(System.currentTimeMillis())
+                .build());
+
+        userLog.append(entry, memoryEntriesPerUser);
+        unflushed.add(entry);
+        unflushedCount.incrementAndGet();
+    }
+
+    // Skips a sequence for the user's unlogged changes, if any, so every client from before them resyncs,
+    // and queues a compaction marker at that sequence so the floor survives a restart. The marker stays in
+    // memory with the changes until written; reads never return it, as it is not above the floor.
+    // Runs under the user's write lock.
+    private void closeGap(final String userId, final UserLog userLog) {
+        if (!gaps.remove(userId)) {
+            return;
+        }
+        Entry marker = new Entry(ProductChangeEntity.builder()
+                .userId(userId)
+                .seq(userLog.lastSeq + 1)
+                .type(COMPACTED)
+                .createdAt(System.currentTimeMillis())
+                .build());
+        userLog.append(marker, memoryEntriesPerUser);
+        userLog.floor = userLog.lastSeq;
+        unflushed.add(marker);
+        unflushedCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the user's changes after the position named by a since token, oldest first.
+     * Each product appears with the state of each logged change to it that was not compacted away;
+     * applying the changes in order brings a copy taken at that position up to date.
+     *
+     * @param userId the user ID
+     * @param sinceToken the since token of the last page the client has applied, "0" for none
+     * @param limit the maximum number of changes, or null for the maximum page size
+     * @return the changes and the position to continue from, or the instruction to resync
+     * @throws RuntimeException if the change log is disabled, the token is malformed or the limit is not positive
+     */
+    public ProductChangeLogPage changesSince(final String userId, final String sinceToken, final Integer limit) {
+        if (!enabled) {
+            throw new RuntimeException("The product change log is disabled");
+        }
+        int size = limit == null ? maxPageSize : limit;
+        if (size <= 0) {
+            throw new RuntimeException("Limit must be positive");
+        }
+        size = Math.min(size, maxPageSize);
+
+        // Sequence 0 precedes every change in every epoch; any other sequence belongs to the epoch it was issued in
+        String epoch = versions.epoch();
+        long since = parseSince(sinceToken, epoch);
+
+        // No change can be logged for the user while the log is read
+        Lock lock = versions.readLock(userId);
+        lock.lock();
+        try {
+            UserLog userLog = logFor(userId);
+            long last = userLog.lastSeq;
+            if (since < 0 || gaps.contains(userId) || since < userLog.floor || since > last) {
+                resyncs.increment();
+                return new ProductChangeLogPage(Collections.emptyList(), epoch, last, false, true);
+            }
+            if (since == last) {
+                return new ProductChangeLogPage(Collections.emptyList(), epoch, last, false, false);
+            }
+
+            List<ProductChangeEntity> changes = new ArrayList<>();
+            Entry oldest = userLog.recent.peekFirst();
+            if (oldest == null || oldest.row.getSeq() > since + 1) {
+                // Older than what is held in memory: read the table, then continue with the entries in memory
+                int pageSize = size;
+                changes.addAll(shardRouter.forUser(userId, () -> transactionTemplate.execute(
+                        status -> repository.findAfter(userId, since, PageRequest.of(0, pageSize + 1)))));
+                if (changes.size() > size) {
+                    List<ProductChangeEntity> page = new ArrayList<>(changes.subList(0, size));
+                    return new ProductChangeLogPage(page, epoch, page.get(size - 1).getSeq(), true, false);
+                }
+            }
+
+            long after = changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq();
+            for (Entry entry : userLog.recent) {
+                if (entry.row.getSeq() <= after) {
+                    continue;
+                }
+                if (changes.size() == size) {
+                    return new ProductChangeLogPage(changes, epoch, changes.get(size - 1).getSeq(), true, false);
+                }
+                changes.add(entry.row);
+            }
+            return new ProductChangeLogPage(changes, epoch, last, false, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the sequence of a since token of the given epoch, or -1 if the token belongs to another epoch
+    private static long parseSince(final String token, final String epoch) {
+        if (token == null || token.isEmpty()) {
+            throw new RuntimeException("A since token is required");
+        }
+        int separator = token.lastIndexOf('.');
+        String tokenEpoch = separator < 0 ? null : token.substring(0, separator);
+        long seq;
+        try {
+            seq = Long.parseLong(token.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid since token: " + token);
+        }
+        if (seq < 0) {
+            throw new RuntimeException("Invalid since token: " + token);
+        }
+        return seq == 0 || epoch.equals(tokenEpoch) ? seq : -1;
+    }
+
+    // Returns the user's log, continuing the sequence stored in the table on first use since startup.
+    // Callers hold the user's lock, so a log loaded twice concurrently is loaded with the same state;
+    // unlogged changes are accounted for by closeGap under the write lock.
+    private UserLog logFor(final String userId) {
+        UserLog userLog = logs.get(userId);
+        if (userLog != null) {
+            return userLog;
+        }
+        UserLog loaded = shardRouter.forUser(userId, () -> transactionTemplate.execute(status -> {
+            Long last = repository.findLastSeq(userId);
+            Long compacted = repository.findCompactedSeq(userId);
+            return new UserLog(last == null ? 0 : last, compacted == null ? 0 : compacted);
+        }));
+        UserLog current = logs.putIfAbsent(userId, loaded);
+        return current != null ? current : loaded;
+    }
+
+    // Inserts the logged changes that are not in the table yet, one transaction per shard and batch.
+    // Changes that fail are queued again and retried on the next run.
+    void flush() {
+        try {
+            List<Entry> failed = new ArrayList<>();
+            List<Entry> batch = new ArrayList<>(flushBatchSize);
+            do {
+                batch.clear();
+                Entry entry;
+                while (batch.size() < flushBatchSize && (entry = unflushed.poll()) != null) {
+                    batch.add(entry);
+                }
+
+                // While users are moved between shards, each user is written under its migration lock
+                boolean rebalancing = shardRouter.isRebalancing();
+                Map<String, List<Entry>> groups = new LinkedHashMap<>();
+                for (Entry queued : batch) {
+                    String userId = queued.row.getUserId();
+                    groups.computeIfAbsent(rebalancing ? userId : shardRouter.shardFor(userId), key -> new ArrayList<>())
+                            .add(queued);
+                }
+
+                for (Map.Entry<String, List<Entry>> group : groups.entrySet()) {
+                    List<ProductChangeEntity> rows = new ArrayList<>(group.getValue().size());
+                    group.getValue().forEach(queued -> rows.add(queued.row));
+                    try {
+                        if (rebalancing) {
+                            shardRouter.forUser(group.getKey(), () -> transactionTemplate.execute(status -> repository.saveAll(rows)));
+                        } else {
+                            shardRouter.onShard(group.getKey(), () -> transactionTemplate.execute(status -> repository.saveAll(rows)));
+                        }
+                        group.getValue().forEach(queued -> queued.flushed = true);
+                        unflushedCount.addAndGet(-rows.size());
+                    } catch (Exception e) {
+                        log.error("Error writing {} product changes to the change log: {}", rows.size(), e.getMessage());
+                        failed.addAll(group.getValue());
+                    }
+                }
+            } while (batch.size() == flushBatchSize && failed.isEmpty());
+            unflushed.addAll(failed);
+            closeGaps();
+        } catch (Exception e) {
+            log.error("Error writing the product change log: {}", e.getMessage(), e);
+        }
+    }
+
+    // Closes the gaps of users with no change since, while there is room, so their clients stop resyncing
+    private void closeGaps() {
+        for (String userId : new ArrayList<>(gaps)) {
+            if (unflushedCount.get() >= maxUnflushedEntries) {
+                return;
+            }
+            Lock lock = versions.writeLock(userId);
+            lock.lock();
+            try {
+                if (gaps.contains(userId)) {
+                    closeGap(userId, logFor(userId));
+                }
+            } catch (RuntimeException e) {
+                log.warn("Error loading the change log of user {}: {}", userId, e.getMessage());
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Drops written entries past their memory retention, and compacts the table on every shard
+    void compact() {
+        try {
+            long now = System.currentTimeMillis();
+            long memoryCutoff = now - TimeUnit.SECONDS.toMillis(memoryRetentionSeconds);
+            for (String userId : new ArrayList<>(logs.keySet())) {
+                Lock lock = versions.writeLock(userId);
+                lock.lock();
+                try {
+                    UserLog userLog = logs.get(userId);
+                    // A log with everything written can be loaded from the table again when needed
+                    if (userLog != null && userLog.trim(memoryCutoff)) {
+                        logs.remove(userId, userLog);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            long tombstoneCutoff = now - TimeUnit.HOURS.toMillis(tombstoneRetentionHours);
+            List<List<String>> shardUsers = shardRouter.scatterGather(() -> transactionTemplate.execute(status -> {
+                Set<String> userIds = new LinkedHashSet<>(repository.findUserIdsWithSupersededChanges());
+                userIds.addAll(repository.findUserIdsWithTombstonesBefore(tombstoneCutoff));
+                return new ArrayList<>(userIds);
+            }));
+            int compacted = 0;
+            for (List<String> userIds : shardUsers) {
+                for (String userId : userIds) {
+                    compactUser(userId, tombstoneCutoff);
+                    compacted++;
+                }
+            }
+            if (compacted > 0) {
+                log.info("Compacted the product change logs of {} users", compacted);
+            }
+        } catch (Exception e) {
+            log.error("Error compacting the product change log: {}", e.getMessage(), e);
+        }
+    }
+
+    // Deletes the user's superseded entries and old tombstones, and moves the compaction floor past the
+    // dropped tombstones. Holds the user's write lock, so no read sees tombstones gone but the old floor.
+    private void compactUser(final String userId, final long tombstoneCutoff) {
+        Lock lock = versions.writeLock(userId);
+        lock.lock();
+        try {
+            long floor = shardRouter.forUser(userId, () -> transactionTemplate.execute(status -> {
+                List<String> drop = new ArrayList<>();
+                Set<String> laterProducts = new HashSet<>();
+                ProductChangeEntity marker = null;
+                long newFloor = 0;
+                for (ProductChangeEntity row : repository.findByUserIdOrderBySeqDesc(userId)) {
+                    if (COMPACTED.equals(row.getType())) {
+                        if (marker == null) {
+                            marker = row;
+                        } else {
+                            drop.add(row.getId());
+                        }
+                        newFloor = Math.max(newFloor, row.getSeq());
+                    } else if (!laterProducts.add(row.getProductId())) {
+                        drop.add(row.getId());
+                    } else if (ProductChange.Type.DELETED.name().equals(row.getType())
+                            && row.getCreatedAt() < tombstoneCutoff) {
+                        drop.add(row.getId());
+                        newFloor = Math.max(newFloor, row.getSeq());
+                    }
+                }
+
+                // Bulk deletes run right away, before the marker takes the sequence of a dropped tombstone
+                for (List<String> ids : Lists.partition(drop, 1000)) {
+                    repository.deleteAllByIdInBatch(ids);
+                }
+                if (marker == null && newFloor > 0) {
+                    repository.save(ProductChangeEntity.builder()
+                            .userId(userId)
+                            .seq(newFloor)
+                            .type(COMPACTED)
+                            .createdAt(System.currentTimeMillis())
+                            .build());
+                } else if (marker != null && marker.getSeq() < newFloor) {
+                    marker.setSeq(newFloor);
+                }
+                return newFloor;
+            }));
+
+            UserLog userLog = logs.get(userId);
+            if (userLog != null) {
+                userLog.floor = Math.max(userLog.floor, floor);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A user's position in the change log and its most recent entries. Guarded by the user's lock in
+     * CatalogVersions: changed under the write lock, read under either lock.
+     */
+    private static final class UserLog {
+        private long lastSeq;
+        // Lowest sequence a client can continue from
+        private long floor;
+        private final Deque<Entry> recent = new ArrayDeque<>();
+
+        private UserLog(long lastSeq, long floor) {
+            this.lastSeq = lastSeq;
+            this.floor = floor;
+        }
+
+        // Adds the newest entry, dropping the oldest written ones beyond the limit
+        private void append(final Entry entry, final int limit) {
+            recent.addLast(entry);
+            lastSeq = entry.row.getSeq();
+            while (recent.size() > limit && recent.peekFirst().flushed) {
+                recent.removeFirst();
+            }
+        }
+
+        // Drops written entries logged before the cutoff; returns whether nothing is left in memory
+        private boolean trim(final long cutoff) {
+            while (!recent.isEmpty() && recent.peekFirst().flushed && recent.peekFirst().row.getCreatedAt() < cutoff) {
+                recent.removeFirst();
+            }
+            return recent.isEmpty();
+        }
+    }
+
+    // A logged change and whether it has been written to the table. Entries are only dropped from
+    // memory once written, so every change is always either in memory or in the table.
+    private static final class Entry {
+        private final ProductChangeEntity row;
+        private volatile boolean flushed;
+
+        private Entry(ProductChangeEntity row) {
+            this.row = row;
+        }
+    }
+}
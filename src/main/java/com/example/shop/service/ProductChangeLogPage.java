@@ -0,0 +1,32 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductChangeEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A run of a user's change log after a requested sequence, and the sequence to continue from.
+ * When resync is set the requested sequence can no longer be continued from, because compaction
+ * dropped entries after it, it is ahead of the log or it belongs to another epoch; the client has to
+ * retrieve the full product list and continue from the returned sequence.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductChangeLogPage {
+    private final List<ProductChangeEntity> changes;
+    private final String epoch;
+    private final long seq;
+    private final boolean more;
+    private final boolean resync;
+
+    /**
+     * Returns the token naming the position to continue from, to be passed back as the since parameter.
+     *
+     * @return the epoch and the sequence, as epoch.seq
+     */
+    public String getSince() {
+        return epoch + "." + seq;
+    }
+}
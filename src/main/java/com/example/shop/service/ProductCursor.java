@@ -0,0 +1,94 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Position of the last row of a product page, handed to clients as an opaque string.
+ * The cursor records the sort order it was issued for, the sort key of the last row
+ * (which may be null) and its ID, which together identify where the next page starts.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductCursor {
+
+    private static final char SEPARATOR = '\n';
+    private static final char NULL_KEY = '~';
+    private static final char VALUE_KEY = '=';
+
+    private final ProductSort sort;
+    private final String key;
+    private final String id;
+
+    /**
+     * Builds the cursor pointing just past the given product in the given sort order.
+     *
+     * @param sort the sort order of the page
+     * @param entity the last product of the page
+     * @return the cursor for the next page
+     */
+    public static ProductCursor after(final ProductSort sort, final ProductEntity entity) {
+        String key;
+        switch (sort) {
+            case TITLE:
+                key = entity.getTitle();
+                break;
+            case PRICE:
+                key = entity.getPrice() == null ? null : entity.getPrice().toString();
+                break;
+            default:
+                key = entity.getId();
+        }
+        return new ProductCursor(sort, key, entity.getId());
+    }
+
+    /**
+     * Encodes this cursor as a URL-safe string.
+     *
+     * @return the encoded cursor
+     */
+    public String encode() {
+        // The ID never contains the separator, so the key goes last and may contain anything
+        String raw = sort.name() + SEPARATOR + id + SEPARATOR + (key == null ? NULL_KEY + "" : VALUE_KEY + key);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor previously produced by {@link #encode()}.
+     *
+     * @param cursor the encoded cursor
+     * @param sort the sort order of the requested page
+     * @return the decoded cursor
+     * @throws RuntimeException if the cursor is malformed or was issued for another sort order
+     */
+    public static ProductCursor decode(final String cursor, final ProductSort sort) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+
+        int first = raw.indexOf(SEPARATOR);
+        int second = first < 0 ? -1 : raw.indexOf(SEPARATOR, first + 1);
+        if (second < 0 || second + 1 >= raw.length()) {
+            throw new RuntimeException("Invalid cursor");
+        }
+        if (!sort.name().equals(raw.substring(0, first))) {
+            throw new RuntimeException("Cursor does not match sort " + sort.name().toLowerCase(Locale.ROOT));
+        }
+
+        String id = raw.substring(first + 1, second);
+        char marker = raw.charAt(second + 1);
+        if (marker != NULL_KEY && marker != VALUE_KEY) {
+            throw new RuntimeException("Invalid cursor");
+        }
+        String key = marker == NULL_KEY ? null : raw.substring(second + 2);
+        return new ProductCursor(sort, key, id);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.shop.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the database work of the product endpoints on a bounded thread pool, away from the servlet threads.
+ * The pool has as many threads as the JDBC connection pool has connections by default, so at most that
+ * many requests hold a connection while the rest wait in a bounded queue; once the queue is full new work
+ * is rejected immediately. A servlet thread therefore only parses the request and writes the response,
+ * and HTTP concurrency is no longer capped by how long JPA round trips take.
+ *
+ * The timeout only covers the wait in the queue. A task that has not started in time is never run, so
+ * the caller may safely retry it; a task that has started runs to completion, as a write timed out
+ * halfway could still commit after its caller was told it failed.
+ *
+ * When disabled, tasks run on the calling thread and the returned futures are already complete.
+ */
+@Slf4j
+@Component
+public class ProductDbExecutor {
+
+    // Whether product requests run on the pool; false runs them on the servlet thread
+    @Value("${shop.product-executor.enabled:true}")
+    private boolean enabled;
+
+    // Number of threads; 0 uses the size of the JDBC connection pool
+    @Value("${shop.product-executor.threads:0}")
+    private int threads;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    // Number of tasks that may wait for a thread before new ones are rejected
+    @Value("${shop.product-executor.queue-capacity:256}")
+    private int queueCapacity;
+
+    // Time a task may wait in the queue for a thread; a started task is not timed out
+    @Value("${shop.product-executor.timeout-millis:10000}")
+    private long timeoutMillis;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor pool;
+    private ExecutorService executor;
+    private Counter rejected;
+
+    // Builds the pool from the configured limits and registers its metrics
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            log.info("Product requests run on the servlet threads");
+            return;
+        }
+
+        int poolSize = threads > 0 ? threads : connectionPoolSize;
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("product-db-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        // executor.* meters tagged name=shop.product.db: queue wait, execution time, queued and active tasks
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "shop.product.db");
+        rejected = Counter.builder("shop.product.db.rejected")
+                .description("Product requests rejected because the database pool and its queue were full")
+                .register(meterRegistry);
+
+        log.info("Product requests run on {} threads with a queue of {} and a timeout of {} ms",
+                poolSize, queueCapacity, timeoutMillis);
+    }
+
+    // Stops accepting tasks when the application shuts down
+    @PreDestroy
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs a task that uses the database on the pool.
+     * The returned future fails with a TimeoutException if no thread picks the task up within the
+     * configured timeout, and the task is then never run; once started, the task is not timed out.
+     *
+     * @param task the task to run
+     * @return a future completed with the result of the task
+     * @throws RejectedExecutionException if all threads and queue slots are taken
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(task.get());
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // Completed by whichever comes first: a thread starting the task, or the queue timeout
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                // Do not spend a connection on a request that has already been answered
+                if (!started.complete(null)) {
+                    return;
+                }
+                try {
+                    future.complete(task.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        started.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+}
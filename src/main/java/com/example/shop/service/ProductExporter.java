@@ -0,0 +1,219 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.persistence.ShardRouter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writes every product of every user to a stream, for catalog dumps.
+ * Each shard is read in its own read-only transaction through a forward-only JPA result stream with a
+ * fixed JDBC fetch size, and every entity is detached as soon as it is written, so neither the result
+ * set nor the persistence context grows with the catalog and heap use stays constant however many rows
+ * there are. Read-only transactions are served by the read replica when one is configured.
+ *
+ * The export is not a snapshot across shards: products written while it runs may or may not be included,
+ * writes still queued by ProductWriteBehind are not, and a user moved between shards by a rebalance
+ * during the export may appear twice or not at all.
+ */
+@Slf4j
+@Component
+public class ProductExporter {
+
+    private static final String CSV_HEADER = "id,user_id,title,material,price,version";
+
+    // Rows fetched from the database per round trip; MySQL Connector/J also needs useCursorFetch=true
+    @Value("${shop.product-export.fetch-size:500}")
+    private int fetchSize;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private TransactionTemplate readOnlyTransactionTemplate;
+    private ObjectWriter rowWriter;
+    private Counter exportedRows;
+
+    /**
+     * Formats a product export can be written in.
+     */
+    public enum Format {
+        // One JSON object per line
+        NDJSON,
+        // RFC 4180 comma-separated values with a header row
+        CSV
+    }
+
+    @PostConstruct
+    void init() {
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+
+        // The output is flushed once per shard, not after every row
+        rowWriter = objectMapper.writerFor(ProductEntity.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        exportedRows = Counter.builder("shop.product.export.rows")
+                .description("Products written by catalog exports")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes all products to the output stream, shard by shard, in ID order within each shard.
+     * The output stream is flushed but not closed.
+     *
+     * @param format the output format
+     * @param out the stream to write to
+     * @return the number of products written
+     * @throws IOException if writing fails, for example because the client went away
+     */
+    public long export(final Format format, final OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        RowSink sink = format == Format.CSV ? new CsvSink(writer) : new NdjsonSink(writer);
+
+        long rows = 0;
+        try {
+            for (String shard : shardRouter.shards()) {
+                rows += shardRouter.onShard(shard, () -> readOnlyTransactionTemplate.execute(status -> exportShard(sink)));
+                sink.flush();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        log.info("Exported {} products as {} in {} ms", rows, format,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return rows;
+    }
+
+    // Streams the products of the shard the current transaction is bound to into the sink
+    private long exportShard(final RowSink sink) {
+        long rows = 0;
+        try (Stream<ProductEntity> products = entityManager
+                .createQuery("select p from ProductEntity p order by p.id", ProductEntity.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            for (ProductEntity product : (Iterable<ProductEntity>) products::iterator) {
+                sink.write(product);
+                // Keep the persistence context from holding every product read so far
+                entityManager.detach(product);
+                rows++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        exportedRows.increment(rows);
+        return rows;
+    }
+
+    // Writes products in one of the export formats
+    private interface RowSink {
+        void write(ProductEntity product) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    private final class NdjsonSink implements RowSink {
+        private final JsonGenerator generator;
+
+        private NdjsonSink(final Writer writer) throws IOException {
+            generator = objectMapper.getFactory().createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Rows are separated by the newline written after each one instead of the default space
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(final ProductEntity product) throws IOException {
+            rowWriter.writeValue(generator, product);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static final class CsvSink implements RowSink {
+        private final Writer writer;
+
+        private CsvSink(final Writer writer) throws IOException {
+            this.writer = writer;
+            writer.write(CSV_HEADER);
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(final ProductEntity product) throws IOException {
+            writeField(product.getId());
+            writer.write(',');
+            writeField(product.getUserId());
+            writer.write(',');
+            writeField(product.getTitle());
+            writer.write(',');
+            writeField(product.getMaterial());
+            writer.write(',');
+            writeField(product.getPrice() == null ? null : product.getPrice().toString());
+            writer.write(',');
+            writeField(product.getVersion() == null ? null : product.getVersion().toString());
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        // Quotes fields containing a separator, quote or line break, doubling embedded quotes
+        private void writeField(final String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+}
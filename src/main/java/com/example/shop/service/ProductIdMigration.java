@@ -0,0 +1,98 @@
+package com.example.shop.service;
+
+import com.example.shop.model.TimeOrderedIds;
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Optional background migration giving existing products time-ordered keys in place of their hex UUIDs.
+ * Enabled with shop.ids.migrate-products; it finds the users owning such products on every shard and
+ * re-keys them one user at a time through ProductService, so caches, listeners and catalog versions
+ * follow. Re-keyed products get new IDs, which clients see as a delete and a create; it is safe to stop
+ * and run again, as only products still holding a 32-character key are picked up.
+ *
+ * Users keep their existing IDs, as they are referenced by every product row and by issued tokens;
+ * users registered while time-ordered IDs are enabled get them.
+ */
+@Slf4j
+@Component
+public class ProductIdMigration {
+
+    @Value("${shop.ids.migrate-products:false}")
+    private boolean enabled;
+
+    // Pause after each user, to limit the load the migration puts on the database
+    @Value("${shop.ids.migrate-pause-millis:10}")
+    private long pauseMillis;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private TimeOrderedIds ids;
+
+    // Starts the migration once the application serves requests
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!ids.isTimeOrdered()) {
+            log.warn("shop.ids.migrate-products is set but time-ordered IDs are disabled; nothing migrated");
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                log.info("Product ID migration finished: {} products re-keyed", migrate());
+            } catch (Exception e) {
+                log.error("Product ID migration stopped: {}", e.getMessage(), e);
+            }
+        }, "product-id-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Re-keys the products of every user that still has products with hex UUID keys.
+     *
+     * @return the number of re-keyed products
+     */
+    public int migrate() {
+        Set<String> userIds = new LinkedHashSet<>();
+        for (List<String> shardUserIds : shardRouter.scatterGather(repository::findUserIdsWithLegacyIds)) {
+            userIds.addAll(shardUserIds);
+        }
+        log.info("Re-keying the products of {} users", userIds.size());
+
+        int rekeyed = 0;
+        for (String userId : userIds) {
+            rekeyed += productService.rekeyLegacyProducts(userId);
+            if (pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return rekeyed;
+    }
+}
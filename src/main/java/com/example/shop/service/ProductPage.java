@@ -0,0 +1,18 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One page of a user's products together with the cursor of the following page.
+ * The next cursor is null when this is the last page.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductPage {
+    private final List<ProductEntity> entities;
+    private final String nextCursor;
+}
@@ -0,0 +1,574 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.ReadYourWritesTracker;
+import com.example.shop.persistence.ShardRouter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory inverted index over the title and material of each user's products.
+ * A user's index is built from the database on the first search and then kept up to date
+ * incrementally from the changes ProductService publishes. Posting lists are sorted int arrays
+ * of document numbers, so a query walks them in place without boxing or copying, and only the best
+ * offset + limit matches are kept while ranking. The indexes kept in memory are bounded by the total
+ * number of documents they hold, since each one is a copy of its user's whole catalog.
+ */
+@Slf4j
+@Component
+public class ProductSearchIndex implements ProductChangeListener {
+
+    // Deepest result position served; bounds the size of the ranking heap
+    public static final int MAX_RESULT_WINDOW = 10000;
+
+    // Score of a query term found in the title, relative to one found in the material
+    private static final int TITLE_WEIGHT = 2;
+    private static final int MATERIAL_WEIGHT = 1;
+
+    // An index is rebuilt once it holds at least this many removed documents and they outnumber the live ones
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private CatalogVersions versions;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ProductWriteBehind writeBehind;
+
+    // Upper bound on the documents held by all indexes together, removed ones included; the indexes
+    // used least recently are dropped to stay below it
+    @Value("${shop.search.maximum-documents:1000000}")
+    private long maximumDocuments;
+
+    // Time after which the index of a user who stopped searching is dropped
+    @Value("${shop.search.expire-after-access-seconds:1800}")
+    private long expireAfterAccessSeconds;
+
+    // Index of each user's products, keyed by user ID
+    private Cache<String, UserIndex> indexes;
+
+    // Runs the index builds, which may be served by the read replica
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    // Builds the index cache from the configured limits
+    @PostConstruct
+    void initCache() {
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+
+        // One segment, so the weight limit applies to all indexes together rather than to each segment
+        indexes = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maximumDocuments)
+                .weigher((String userId, UserIndex index) -> Math.max(1, index.weight()))
+                .expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, indexes, "shop.product.search");
+    }
+
+    /**
+     * Searches a user's products for the given query.
+     * Only products containing every query term in their title or material match. Matches are ranked
+     * by the summed weight of the fields each term occurs in, scaled by how rare the term is.
+     *
+     * @param userId the user ID whose products are searched
+     * @param query the search terms
+     * @param cursor the cursor returned with the previous page, or null for the first page
+     * @param limit the page size
+     * @return the page of matching products and the cursor of the next page
+     * @throws RuntimeException if the cursor is invalid or points beyond the result window
+     */
+    public ProductPage search(final String userId, final String query, final String cursor, final int limit) {
+        int offset = cursor == null ? 0 : decodeOffset(cursor);
+        if (offset + limit > MAX_RESULT_WINDOW) {
+            throw new RuntimeException("Cannot page beyond " + MAX_RESULT_WINDOW + " results");
+        }
+
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new ProductPage(Collections.emptyList(), null);
+        }
+
+        UserIndex index = indexFor(userId);
+        int[] matched = new int[1];
+        List<ProductEntity> page = index.search(terms.toArray(new String[0]), offset, limit, matched);
+
+        String nextCursor = offset + limit < matched[0] ? encodeOffset(offset + limit) : null;
+        return new ProductPage(page, nextCursor);
+    }
+
+    @Override
+    public void onProductChange(final ProductChange change) {
+        ProductEntity entity = change.getEntity();
+
+        // Users without an index get a fresh one built from the database on their next search
+        UserIndex index = indexes.getIfPresent(entity.getUserId());
+        if (index == null) {
+            return;
+        }
+
+        if (change.getType() == ProductChange.Type.DELETED) {
+            index.remove(entity.getId());
+        } else {
+            index.put(snapshot(entity));
+        }
+        // Weights are computed when an entry is written, so write the index again to account for its new
+        // size; an index evicted in the meantime is not brought back
+        indexes.asMap().replace(entity.getUserId(), index, index);
+    }
+
+    // Returns the user's index, building it from the database if it is not in memory.
+    // The build and the cache insertion happen under the user's read lock, so no write can be
+    // committed and published between reading the products and making the index visible.
+    private UserIndex indexFor(final String userId) {
+        UserIndex index = indexes.getIfPresent(userId);
+        if (index != null) {
+            return index;
+        }
+
+        Lock lock = versions.readLock(userId);
+        lock.lock();
+        try {
+            return indexes.get(userId, () -> build(userId));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException("Error indexing products of user " + userId + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Indexes all products of a user, read from the user's shard, on its primary while the user's own
+    // writes may not have replicated
+    private UserIndex build(final String userId) {
+        long start = System.nanoTime();
+        UserIndex index = new UserIndex();
+        // The index must include the user's writes still queued for the database
+        writeBehind.awaitCommitted(userId);
+        List<ProductEntity> entities = shardRouter.forUser(userId, () -> readYourWrites.readFor(userId,
+                () -> readOnlyTransactionTemplate.execute(status -> repository.findByUserId(userId))));
+        for (ProductEntity entity : entities) {
+            index.put(snapshot(entity));
+        }
+        log.info("Search index of user {} built with {} products in {} ms", userId, index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return index;
+    }
+
+    // Copies the indexed fields, so the index never shares an entity with the persistence layer
+    private static ProductEntity snapshot(final ProductEntity entity) {
+        return ProductEntity.builder()
+                .id(entity.getId())
+                .userId(entity.getUserId())
+                .title(entity.getTitle())
+                .material(entity.getMaterial())
+                .price(entity.getPrice())
+                .version(entity.getVersion())
+                .build();
+    }
+
+    /**
+     * Splits text into distinct lower-case terms made of letters and digits.
+     *
+     * @param text the text to split, may be null
+     * @return the terms in order of first occurrence
+     */
+    static Set<String> tokenize(final String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    // Encodes a result position as an opaque cursor
+    private static String encodeOffset(final int offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("search:" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Decodes a cursor produced by encodeOffset
+    private static int decodeOffset(final String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith("search:")) {
+                throw new RuntimeException("Invalid cursor");
+            }
+            int offset = Integer.parseInt(raw.substring("search:".length()));
+            if (offset < 0) {
+                throw new RuntimeException("Invalid cursor");
+            }
+            return offset;
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+
+    // The index of one user's products. Documents are numbered in the order they are added, so
+    // appending to a posting list keeps it sorted. Updating a product removes its old document and
+    // adds a new one; removed documents stay in the posting lists until the index is compacted.
+    private static final class UserIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<ProductEntity> documents = new ArrayList<>();
+        private final Map<String, Integer> documentIds = new HashMap<>();
+        private final Map<String, IntList> titlePostings = new HashMap<>();
+        private final Map<String, IntList> materialPostings = new HashMap<>();
+        private int removed;
+
+        // Adds a product, replacing the document of its previous version if any
+        void put(final ProductEntity product) {
+            lock.writeLock().lock();
+            try {
+                removeDocument(product.getId());
+                addDocument(product);
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Removes a product if it is indexed
+        void remove(final String productId) {
+            lock.writeLock().lock();
+            try {
+                removeDocument(productId);
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Number of documents held, removed ones included until the index is compacted
+        int weight() {
+            lock.readLock().lock();
+            try {
+                return documents.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Number of live documents
+        int size() {
+            lock.readLock().lock();
+            try {
+                return documentIds.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Returns the matches at positions offset to offset + limit, best first,
+        // and stores the total number of matches in matched[0]
+        List<ProductEntity> search(final String[] terms, final int offset, final int limit, final int[] matched) {
+            lock.readLock().lock();
+            try {
+                IntList[] titles = new IntList[terms.length];
+                IntList[] materials = new IntList[terms.length];
+                int[] frequencies = new int[terms.length];
+                int rarest = 0;
+                for (int i = 0; i < terms.length; i++) {
+                    titles[i] = titlePostings.get(terms[i]);
+                    materials[i] = materialPostings.get(terms[i]);
+                    if (titles[i] == null && materials[i] == null) {
+                        // A term found nowhere means no product contains every term
+                        return Collections.emptyList();
+                    }
+                    frequencies[i] = unionSize(titles[i], materials[i]);
+                    if (frequencies[i] < frequencies[rarest]) {
+                        rarest = i;
+                    }
+                }
+
+                // Rarer terms weigh more
+                int live = documentIds.size();
+                double[] weights = new double[terms.length];
+                for (int i = 0; i < terms.length; i++) {
+                    weights[i] = Math.log(1.0 + (double) live / frequencies[i]);
+                }
+
+                // Candidates are the documents of the rarest term, which keeps their number smallest. Its two
+                // posting lists are merged while they are walked, and the other terms are looked up by binary
+                // search, so no posting list is copied.
+                IntList title = titles[rarest];
+                IntList material = materials[rarest];
+                int titleSize = title == null ? 0 : title.size;
+                int materialSize = material == null ? 0 : material.size;
+                TopMatches top = new TopMatches(offset + limit);
+                int count = 0;
+                int i = 0;
+                int j = 0;
+                while (i < titleSize || j < materialSize) {
+                    int document;
+                    if (j == materialSize || (i < titleSize && title.values[i] < material.values[j])) {
+                        document = title.values[i++];
+                    } else if (i == titleSize || material.values[j] < title.values[i]) {
+                        document = material.values[j++];
+                    } else {
+                        document = title.values[i++];
+                        j++;
+                    }
+                    if (documents.get(document) == null) {
+                        continue;
+                    }
+
+                    double score = score(document, titles, materials, weights);
+                    if (score < 0) {
+                        continue;
+                    }
+                    count++;
+                    top.offer(score, document);
+                }
+                matched[0] = count;
+
+                int[] ranked = top.drainBestFirst();
+                List<ProductEntity> page = new ArrayList<>();
+                for (int k = offset; k < ranked.length; k++) {
+                    page.add(documents.get(ranked[k]));
+                }
+                return page;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // Sums the weights of the fields each term occurs in, or returns -1 if a term occurs in neither
+        private static double score(final int document, final IntList[] titles, final IntList[] materials,
+                                    final double[] weights) {
+            double score = 0;
+            for (int i = 0; i < weights.length; i++) {
+                boolean inTitle = IntList.contains(titles[i], document);
+                boolean inMaterial = IntList.contains(materials[i], document);
+                if (!inTitle && !inMaterial) {
+                    return -1;
+                }
+                if (inTitle) {
+                    score += TITLE_WEIGHT * weights[i];
+                }
+                if (inMaterial) {
+                    score += MATERIAL_WEIGHT * weights[i];
+                }
+            }
+            return score;
+        }
+
+        private void addDocument(final ProductEntity product) {
+            int document = documents.size();
+            documents.add(product);
+            documentIds.put(product.getId(), document);
+            for (String term : tokenize(product.getTitle())) {
+                titlePostings.computeIfAbsent(term, t -> new IntList()).add(document);
+            }
+            for (String term : tokenize(product.getMaterial())) {
+                materialPostings.computeIfAbsent(term, t -> new IntList()).add(document);
+            }
+        }
+
+        private void removeDocument(final String productId) {
+            Integer document = documentIds.remove(productId);
+            if (document != null) {
+                documents.set(document, null);
+                removed++;
+            }
+        }
+
+        // Renumbers the live documents once removed ones dominate the posting lists
+        private void compactIfNeeded() {
+            if (removed < COMPACTION_THRESHOLD || removed * 2 < documents.size()) {
+                return;
+            }
+            List<ProductEntity> live = documents.stream()
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            documents.clear();
+            documentIds.clear();
+            titlePostings.clear();
+            materialPostings.clear();
+            removed = 0;
+            live.forEach(this::addDocument);
+        }
+
+        // Counts the distinct documents of two sorted posting lists, either of which may be null
+        private static int unionSize(final IntList a, final IntList b) {
+            if (a == null) {
+                return b.size;
+            }
+            if (b == null) {
+                return a.size;
+            }
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < a.size && j < b.size) {
+                int x = a.values[i];
+                int y = b.values[j];
+                if (x <= y) {
+                    i++;
+                }
+                if (y <= x) {
+                    j++;
+                }
+                n++;
+            }
+            return n + (a.size - i) + (b.size - j);
+        }
+    }
+
+    // Growable sorted array of document numbers
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        static boolean contains(final IntList list, final int value) {
+            return list != null && Arrays.binarySearch(list.values, 0, list.size, value) >= 0;
+        }
+    }
+
+    // Keeps the best matches seen so far in a bounded min-heap, worst match at the root.
+    // Higher scores are better; on equal scores the earlier document is better.
+    private static final class TopMatches {
+        private final double[] scores;
+        private final int[] documents;
+        private int size;
+
+        TopMatches(final int capacity) {
+            scores = new double[capacity];
+            documents = new int[capacity];
+        }
+
+        void offer(final double score, final int document) {
+            if (scores.length == 0) {
+                return;
+            }
+            if (size < scores.length) {
+                scores[size] = score;
+                documents[size] = document;
+                siftUp(size++);
+            } else if (better(score, document, scores[0], documents[0])) {
+                scores[0] = score;
+                documents[0] = document;
+                siftDown(0);
+            }
+        }
+
+        // Empties the heap, returning the documents from best to worst
+        int[] drainBestFirst() {
+            int[] ranked = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                ranked[i] = documents[0];
+                size--;
+                scores[0] = scores[size];
+                documents[0] = documents[size];
+                siftDown(0);
+            }
+            return ranked;
+        }
+
+        private static boolean better(double score, int document, double otherScore, int otherDocument) {
+            return score > otherScore || (score == otherScore && document < otherDocument);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!better(scores[parent], documents[parent], scores[i], documents[i])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int right = left + 1;
+                int worst = i;
+                if (left < size && better(scores[worst], documents[worst], scores[left], documents[left])) {
+                    worst = left;
+                }
+                if (right < size && better(scores[worst], documents[worst], scores[right], documents[right])) {
+                    worst = right;
+                }
+                if (worst == i) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(final int i, final int j) {
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+            int document = documents[i];
+            documents[i] = documents[j];
+            documents[j] = document;
+        }
+    }
+}
@@ -1,20 +1,61 @@
 package com.example.shop.service;
 
 import com.example.shop.model.ProductEntity;
+import com.example.shop.model.TimeOrderedIds;
 import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.ReadYourWritesTracker;
+import com.example.shop.persistence.ShardRouter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 // This ProductService class is a service layer component
 // that interacts with the persistence layer through the injected ProductRepository.
 @Slf4j
 @Service
+@Timed("shop.service")
 public class ProductService {
 
+    // Page size used when the client does not ask for one, and the largest page size served
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    // Largest number of operations or IDs accepted in one batch request
+    public static final int MAX_BATCH_SIZE = 1000;
+
     // Returns a test message
     public String getMessage() {
         return "This is a test message from the ProductService class.";
@@ -23,6 +64,102 @@ public class ProductService {
     @Autowired
     private ProductRepository repository;
 
+    @Autowired
+    private CatalogVersions versions;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Keeps a user's reads on the primary database for a while after the user's own writes
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    // Places each user's products on one of the product database shards
+    @Autowired
+    private ShardRouter shardRouter;
+
+    // Queues single product writes for group commits when write-behind is enabled
+    @Autowired
+    private ProductWriteBehind writeBehind;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Upper bound on the number of users whose product lists are cached
+    @Value("${shop.product-cache.maximum-size:10000}")
+    private long cacheMaximumSize;
+
+    // Time after which a cached product list is reloaded even without writes
+    @Value("${shop.product-cache.expire-after-write-seconds:300}")
+    private long cacheExpireAfterWriteSeconds;
+
+    // Components notified of every write to a user's products, in catalog version order
+    @Autowired(required = false)
+    private List<ProductChangeListener> listeners = Collections.emptyList();
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    private TimeOrderedIds ids;
+
+    @Autowired
+    private ProductChangeLog changeLog;
+
+    // Cache of each user's product list, keyed by user ID. A write holds the user's write lock
+    // while it changes the database and invalidates the entry, and a load reads the database and
+    // puts the entry while holding the user's read lock, so a list read before a write can never
+    // be put back into the cache after the write invalidated it.
+    private Cache<String, List<ProductEntity>> productListCache;
+
+    // Runs the loads of the product list cache, which may be served by the read replica
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    // Whether concurrent cache misses for the same user share a single load
+    @Value("${shop.product-cache.coalesce-loads:true}")
+    private boolean coalesceLoads;
+
+    // Loads of the product list cache in flight, by user ID
+    private SingleFlight<String, List<ProductEntity>> listLoads;
+
+    // Builds the product list cache from the configured limits
+    @PostConstruct
+    void initCache() {
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+
+        productListCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterWrite(cacheExpireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, productListCache, "shop.product.list");
+        listLoads = new SingleFlight<>(meterRegistry, "shop.product.list.flight");
+
+        writeBehind.setFailureHandler(this::compensate);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters of the product list cache.
+     *
+     * @return A snapshot of the cache statistics.
+     */
+    public CacheStats getCacheStats() {
+        return productListCache.stats();
+    }
+
+    /**
+     * Returns the number of product lists currently cached.
+     *
+     * @return The approximate number of cached entries.
+     */
+    public long getCacheSize() {
+        return productListCache.size();
+    }
+
     // Creates a new ProductEntity object, saves it to the repository,
     // retrieves the saved entity by ID, and returns its title
     public String getProductTitle() {
@@ -43,45 +180,323 @@ public class ProductService {
      */
     public List<ProductEntity> create(final ProductEntity entity) {
 
+        // Create the entity
+        createOne(entity);
+
+        // Return a list of all products with the same user ID as the created entity
+        return retrieve(entity.getUserId());
+    }
+
+    /**
+     * Creates a new product entity and saves it to the database.
+     * Returns only the created entity and the user's new catalog version.
+     *
+     * @param entity The product entity to create and save.
+     * @return The change describing the created entity.
+     * @throws RuntimeException if the entity is null or if the user ID is null.
+     */
+    public ProductChange createOne(final ProductEntity entity) {
+
         // Validate the entity before saving it to the database
         validate(entity);
 
         // Save the entity to the database
-        repository.save(entity);
+        ProductChange change = writeFor(entity.getUserId(), changes -> {
+            if (writeBehind.isEnabled()) {
+                // The ID is assigned here, as the product is acknowledged before it is inserted
+                entity.setId(ids.newId());
+                entity.setVersion(0L);
+                writeBehind.enqueue(ProductChange.Type.CREATED, entity);
+            } else {
+                repository.save(entity);
+            }
+            return recordChange(changes, ProductChange.Type.CREATED, entity);
+        });
 
         // Log the ID of the created product entity
         log.info("Product with ID {} created", entity.getId());
 
-        // Return a list of all products with the same user ID as the created entity
-        return repository.findByUserId(entity.getUserId());
+        return change;
     }
 
     /**
-     * Updates the title of an existing product entity in the database.
+     * Updates the title, material and price of an existing product entity in the database.
+     * When the entity carries a version, the product is only updated if it is still at that version.
      * Returns a list of all products with the same user ID as the updated entity.
      *
      * @param entity The product entity to update.
      * @return A list of all products with the same user ID as the updated entity.
      * @throws RuntimeException if the entity is null or if the ID or user ID is null.
+     * @throws ProductVersionMismatchException if the entity carries a version the product is not at.
      */
     public List<ProductEntity> update(final ProductEntity entity) {
 
         // Validate the entity before updating it in the database
         validate(entity);
 
-        // Retrieve the existing entity from the database
-        Optional<ProductEntity> optionalEntity = repository.findById(entity.getId());
-
-        // Update the title of the entity if it exists in the database
-        optionalEntity.ifPresent(product -> {
-            product.setTitle(entity.getTitle());
-            repository.save(product);
-        });
+        // Update the entity if it exists in the database
+        applyUpdate(entity);
 
         // Return a list of all products with the same user ID as the updated entity
         return retrieve(entity.getUserId());
     }
 
+    /**
+     * Updates the title, material and price of an existing product entity in the database.
+     * When the entity carries a version, the product is only updated if it is still at that version.
+     * Returns only the updated entity and the user's new catalog version.
+     *
+     * @param entity The product entity to update.
+     * @return The change describing the updated entity.
+     * @throws RuntimeException if the entity is null, if the ID or user ID is null,
+     *         or if the product does not exist.
+     * @throws ProductVersionMismatchException if the entity carries a version the product is not at.
+     */
+    public ProductChange updateOne(final ProductEntity entity) {
+
+        // Validate the entity before updating it in the database
+        validate(entity);
+
+        // Update the entity, failing if it does not exist in the database
+        return applyUpdate(entity)
+                .orElseThrow(() -> new RuntimeException("Product with ID " + entity.getId() + " not found"));
+    }
+
+    // Updates the stored entity with the ID of the given entity, if it exists and belongs to the user.
+    // A versioned update is one UPDATE statement whose WHERE clause checks the ID, the owner and the
+    // version, so the updated product is known without reading it back; an unversioned update reads
+    // the row back in the same transaction to learn its new version.
+    private Optional<ProductChange> applyUpdate(final ProductEntity entity) {
+        if (entity.getId() == null) {
+            throw new RuntimeException("Product ID cannot be null");
+        }
+        if (writeBehind.isEnabled()) {
+            return queueUpdate(entity);
+        }
+
+        return writeFor(entity.getUserId(), changes -> transactionTemplate.execute(status -> {
+            Long expectedVersion = entity.getVersion();
+            if (expectedVersion != null) {
+                int updated = repository.updateIfVersion(entity.getId(), entity.getUserId(), expectedVersion,
+                        entity.getTitle(), entity.getMaterial(), entity.getPrice());
+                if (updated == 0) {
+                    throw new ProductVersionMismatchException(entity.getId(), expectedVersion);
+                }
+
+                ProductEntity product = ProductEntity.builder()
+                        .id(entity.getId())
+                        .userId(entity.getUserId())
+                        .version(expectedVersion + 1)
+                        .build();
+                applyChanges(entity, product);
+                return Optional.of(recordChange(changes, ProductChange.Type.UPDATED, product));
+            }
+
+            int updated = repository.updateOwned(entity.getId(), entity.getUserId(),
+                    entity.getTitle(), entity.getMaterial(), entity.getPrice());
+            if (updated == 0) {
+                return Optional.<ProductChange>empty();
+            }
+            return repository.findByIdAndUserId(entity.getId(), entity.getUserId())
+                    .map(product -> recordChange(changes, ProductChange.Type.UPDATED, product));
+        }));
+    }
+
+    // Checks an update against the product as the user currently sees it, including queued writes,
+    // and queues it with the version the product will have once it is committed
+    private Optional<ProductChange> queueUpdate(final ProductEntity entity) {
+        return writeFor(entity.getUserId(), changes -> {
+            ProductEntity current = currentState(entity.getUserId(), entity.getId());
+            Long expectedVersion = entity.getVersion();
+            if (expectedVersion != null && (current == null || !expectedVersion.equals(current.getVersion()))) {
+                throw new ProductVersionMismatchException(entity.getId(), expectedVersion);
+            }
+            if (current == null) {
+                return Optional.<ProductChange>empty();
+            }
+
+            ProductEntity product = ProductEntity.builder()
+                    .id(entity.getId())
+                    .userId(entity.getUserId())
+                    .version(current.getVersion() == null ? null : current.getVersion() + 1)
+                    .build();
+            applyChanges(entity, product);
+            writeBehind.enqueue(ProductChange.Type.UPDATED, product);
+            return Optional.of(recordChange(changes, ProductChange.Type.UPDATED, product));
+        });
+    }
+
+    // Returns a product as its owner currently sees it: its latest queued write if there is one,
+    // otherwise the stored row; null if it does not exist. Called inside writeFor.
+    private ProductEntity currentState(final String userId, final String id) {
+        ProductWriteBehind.PendingWrite pending = writeBehind.pendingFor(userId).get(id);
+        if (pending != null) {
+            return pending.getType() == ProductChange.Type.DELETED ? null : pending.getEntity();
+        }
+        return repository.findByIdAndUserId(id, userId).orElse(null);
+    }
+
+    // Copies the fields a client may change from the requested entity to the stored entity
+    private static void applyChanges(final ProductEntity source, final ProductEntity target) {
+        target.setTitle(source.getTitle());
+        target.setMaterial(source.getMaterial());
+        target.setPrice(source.getPrice());
+    }
+
+    /**
+     * Applies a batch of creates, updates and deletes to a user's products in one transaction.
+     * Inserts, updates and deletes are each sent to the database in JDBC batches, and existing
+     * products are looked up with one query per operation type, so the number of round trips
+     * grows with the number of JDBC batches rather than with the number of operations.
+     * Updates and deletes of products that do not belong to the user are reported as not found.
+     *
+     * @param userId The user ID owning the products.
+     * @param creates The products to create.
+     * @param updates The products to update, identified by ID.
+     * @param deletes The products to delete, identified by ID.
+     * @return The outcome of every operation, creates first, then updates, then deletes.
+     * @throws RuntimeException if the user ID is null, if the batch is too large,
+     *         or if the transaction fails, in which case nothing is applied.
+     */
+    public List<ProductBatchItem> applyBatch(final String userId, final List<ProductEntity> creates,
+                                             final List<ProductEntity> updates, final List<ProductEntity> deletes) {
+        if (userId == null) {
+            log.warn("The user ID is null");
+            throw new RuntimeException("User ID cannot be null");
+        }
+        if (creates.size() + updates.size() + deletes.size() > MAX_BATCH_SIZE) {
+            throw new RuntimeException("A batch cannot contain more than " + MAX_BATCH_SIZE + " operations");
+        }
+
+        // A batch is already one transaction, so it is applied directly once queued writes are committed
+        List<ProductBatchItem> items = writeFor(userId, changes -> {
+            writeBehind.awaitCommitted(userId);
+            return transactionTemplate.execute(status -> {
+                List<ProductBatchItem> results = new ArrayList<>();
+                createAll(userId, creates, results, changes);
+                updateAll(userId, updates, results, changes);
+                deleteAll(userId, deletes, results, changes);
+                return results;
+            });
+        });
+
+        log.info("Product batch applied for user {}: {} creates, {} updates, {} deletes",
+                userId, creates.size(), updates.size(), deletes.size());
+        return items;
+    }
+
+    // Inserts all created products; the inserts are flushed in JDBC batches at commit
+    private void createAll(final String userId, final List<ProductEntity> creates,
+                           final List<ProductBatchItem> results, final List<ProductChange> changes) {
+        for (ProductEntity entity : creates) {
+            // Make sure every product is inserted with a new ID and belongs to the user
+            entity.setId(null);
+            entity.setVersion(null);
+            entity.setUserId(userId);
+        }
+        repository.saveAll(creates);
+
+        for (int i = 0; i < creates.size(); i++) {
+            ProductEntity entity = creates.get(i);
+            recordChange(changes, ProductChange.Type.CREATED, entity);
+            results.add(new ProductBatchItem(ProductChange.Type.CREATED, i, ProductBatchItem.Status.OK, entity, null));
+        }
+    }
+
+    // Applies all updates to the user's stored products; the changed rows are flushed in JDBC batches at commit
+    private void updateAll(final String userId, final List<ProductEntity> updates,
+                           final List<ProductBatchItem> results, final List<ProductChange> changes) {
+        Map<String, ProductEntity> stored = findOwned(userId, updates);
+
+        for (int i = 0; i < updates.size(); i++) {
+            ProductEntity entity = updates.get(i);
+            if (entity.getId() == null) {
+                results.add(new ProductBatchItem(ProductChange.Type.UPDATED, i, ProductBatchItem.Status.INVALID,
+                        null, "Product ID cannot be null"));
+                continue;
+            }
+
+            ProductEntity product = stored.get(entity.getId());
+            if (product == null) {
+                results.add(new ProductBatchItem(ProductChange.Type.UPDATED, i, ProductBatchItem.Status.NOT_FOUND,
+                        null, "Product with ID " + entity.getId() + " not found"));
+                continue;
+            }
+
+            // The product is managed by the transaction, so the change is written by dirty checking
+            applyChanges(entity, product);
+            recordChange(changes, ProductChange.Type.UPDATED, product);
+            results.add(new ProductBatchItem(ProductChange.Type.UPDATED, i, ProductBatchItem.Status.OK, product, null));
+        }
+    }
+
+    // Removes all deleted products owned by the user with one set-based DELETE statement
+    private void deleteAll(final String userId, final List<ProductEntity> deletes,
+                           final List<ProductBatchItem> results, final List<ProductChange> changes) {
+        Map<String, ProductEntity> stored = findOwned(userId, deletes);
+        List<String> removed = new ArrayList<>();
+
+        for (int i = 0; i < deletes.size(); i++) {
+            ProductEntity entity = deletes.get(i);
+            if (entity.getId() == null) {
+                results.add(new ProductBatchItem(ProductChange.Type.DELETED, i, ProductBatchItem.Status.INVALID,
+                        null, "Product ID cannot be null"));
+                continue;
+            }
+
+            // Remove each product only once, even if the batch lists it several times
+            ProductEntity product = stored.remove(entity.getId());
+            if (product == null) {
+                results.add(new ProductBatchItem(ProductChange.Type.DELETED, i, ProductBatchItem.Status.NOT_FOUND,
+                        null, "Product with ID " + entity.getId() + " not found"));
+                continue;
+            }
+
+            removed.add(product.getId());
+            recordChange(changes, ProductChange.Type.DELETED, product);
+            results.add(new ProductBatchItem(ProductChange.Type.DELETED, i, ProductBatchItem.Status.OK, product, null));
+        }
+        // Pending creates and updates are flushed before the statement runs
+        if (!removed.isEmpty()) {
+            repository.deleteOwned(userId, removed);
+        }
+    }
+
+    // Loads the user's stored products with the IDs of the given entities, keyed by ID
+    private Map<String, ProductEntity> findOwned(final String userId, final List<ProductEntity> entities) {
+        Set<String> ids = entities.stream()
+                .map(ProductEntity::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        return repository.findByUserIdAndIdIn(userId, ids).stream()
+                .collect(Collectors.toMap(ProductEntity::getId, Function.identity()));
+    }
+
+    /**
+     * Retrieves the products with the given IDs that belong to the given user, in one query.
+     * IDs that do not exist or belong to another user are left out of the result.
+     *
+     * @param userId The user ID owning the products.
+     * @param ids The IDs of the products to retrieve.
+     * @return The products found.
+     * @throws RuntimeException if more IDs are requested than a batch may contain.
+     */
+    @Transactional(readOnly = true)
+    public List<ProductEntity> retrieveByIds(final String userId, final Collection<String> ids) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new RuntimeException("Cannot retrieve more than " + MAX_BATCH_SIZE + " products at once");
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Queued writes are read before the database, so a write committed in between is seen in one or both
+        Map<String, ProductWriteBehind.PendingWrite> pending = writeBehind.pendingFor(userId);
+        List<ProductEntity> stored = readFor(userId, () -> repository.findByUserIdAndIdIn(userId, ids));
+        return withPending(stored, pending, ids::contains);
+    }
 
     /**
      * Validates a product entity.
@@ -114,25 +529,461 @@ public class ProductService {
      */
     public List<ProductEntity> delete(final ProductEntity entity) {
 
+        // Delete the entity
+        deleteOne(entity);
+
+        // Return a list of all products with the same user ID as the deleted entity
+        return retrieve(entity.getUserId());
+    }
+
+    /**
+     * Deletes an existing product entity from the database.
+     * Returns only the deleted entity and the user's new catalog version.
+     *
+     * @param entity The product entity to delete.
+     * @return The change describing the deleted entity.
+     * @throws RuntimeException if the entity is null or if the ID or user ID is null,
+     *         or if an error occurs while deleting the entity.
+     */
+    public ProductChange deleteOne(final ProductEntity entity) {
+
         // Validate the entity before deleting it from the database
         validate(entity);
 
         try {
-            // Attempt to delete the entity from the database
-            repository.delete(entity);
+            // Delete with one statement that also checks the owner, without loading the product first
+            return writeFor(entity.getUserId(), changes -> {
+                if (writeBehind.isEnabled()) {
+                    if (currentState(entity.getUserId(), entity.getId()) == null) {
+                        throw new RuntimeException("Product with ID " + entity.getId() + " not found");
+                    }
+                    writeBehind.enqueue(ProductChange.Type.DELETED, entity);
+                    return recordChange(changes, ProductChange.Type.DELETED, entity);
+                }
+
+                int deleted = repository.deleteOwned(entity.getUserId(), Collections.singleton(entity.getId()));
+                if (deleted == 0) {
+                    throw new RuntimeException("Product with ID " + entity.getId() + " not found");
+                }
+                return recordChange(changes, ProductChange.Type.DELETED, entity);
+            });
+        } catch (RejectedExecutionException e) {
+            // A full write-behind queue is reported as such, so the client can retry
+            throw e;
         } catch (Exception e) {
             // Log the error message with the ID of the entity
             log.error("Error deleting product with ID " + entity.getId() + ": " + e.getMessage());
             // Throw a runtime exception with the error message
             throw new RuntimeException("Error deleting product with ID " + entity.getId() + ": " + e.getMessage());
         }
+    }
 
-        // Return a list of all products with the same user ID as the deleted entity
-        return retrieve(entity.getUserId());
+    /**
+     * Deletes the given user's products with the given IDs with one set-based statement.
+     * IDs of products that do not exist or belong to another user are ignored. The matching products
+     * are looked up in the same transaction first, so listeners receive a deletion only for the
+     * products that were actually deleted.
+     *
+     * @param userId The user ID owning the products.
+     * @param ids The IDs of the products to delete.
+     * @return The number of products deleted.
+     * @throws RuntimeException if the user ID is null or more IDs are given than a batch may contain.
+     */
+    public int deleteByIds(final String userId, final Collection<String> ids) {
+        if (userId == null) {
+            log.warn("The user ID is null");
+            throw new RuntimeException("User ID cannot be null");
+        }
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new RuntimeException("Cannot delete more than " + MAX_BATCH_SIZE + " products at once");
+        }
+        Set<String> distinctIds = ids.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (distinctIds.isEmpty()) {
+            return 0;
+        }
+
+        int deleted = writeFor(userId, changes -> {
+            writeBehind.awaitCommitted(userId);
+            return transactionTemplate.execute(status -> {
+                // No other write to the user's products runs under the write lock, so the products
+                // found here are exactly the ones the statement deletes
+                List<ProductEntity> owned = repository.findByUserIdAndIdIn(userId, distinctIds);
+                if (owned.isEmpty()) {
+                    return 0;
+                }
+                int count = repository.deleteOwned(userId,
+                        owned.stream().map(ProductEntity::getId).collect(Collectors.toList()));
+                for (ProductEntity product : owned) {
+                    recordChange(changes, ProductChange.Type.DELETED, product);
+                }
+                return count;
+            });
+        });
+
+        log.info("{} of {} products deleted for user {}", deleted, distinctIds.size(), userId);
+        return deleted;
+    }
+
+    /**
+     * Returns the current catalog version of a user.
+     * The version is read under the user's read lock, so every write it counts has been committed and
+     * has invalidated the cached product list; a list retrieved afterwards is at least that recent.
+     *
+     * @param userId The user ID.
+     * @return The version, advanced by every write to the user's products.
+     */
+    public long getCatalogVersion(final String userId) {
+        Lock lock = versions.readLock(userId);
+        lock.lock();
+        try {
+            return versions.current(userId);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    // Retrieves a list of all products with the given user ID from the repository
+    /**
+     * Runs an action with the current catalog version of a user, under the user's read lock.
+     * Writes pass their changes to the listeners under the user's write lock, so none is published
+     * while the action runs: a listener the action registers receives exactly the changes after the version.
+     *
+     * @param userId The user ID.
+     * @param action The action, given the current catalog version.
+     * @return The result of the action.
+     */
+    public <T> T atCatalogVersion(final String userId, final LongFunction<T> action) {
+        Lock lock = versions.readLock(userId);
+        lock.lock();
+        try {
+            return action.apply(versions.current(userId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the epoch of the catalog versions: versions restart from 0 whenever the application does,
+     * so a version is only meaningful to a client together with the epoch it was issued in.
+     *
+     * @return The epoch of this run of the application.
+     */
+    public String getCatalogEpoch() {
+        return versions.epoch();
+    }
+
+    /**
+     * Returns the current catalog version of a user if it can be read without waiting.
+     * The version is read under the user's read lock as by getCatalogVersion, but the lock is only
+     * tried: while a write holds it, nothing is read, so a servlet thread is never blocked by a write.
+     *
+     * @param userId The user ID.
+     * @return The version, or empty if a write to the user's products (or to a user sharing their
+     *         lock stripe) is in progress.
+     */
+    public OptionalLong tryGetCatalogVersion(final String userId) {
+        Lock lock = versions.readLock(userId);
+        if (!lock.tryLock()) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(versions.current(userId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the strong ETag of a user's product list at a catalog version.
+     * The ETag combines the version with the epoch of this run of the application,
+     * so an ETag issued before a restart never matches afterwards.
+     *
+     * @param version The catalog version, as returned by getCatalogVersion.
+     * @return The quoted ETag.
+     */
+    public String getCatalogETag(final long version) {
+        return "\"" + versions.epoch() + "." + version + "\"";
+    }
+
+    // Retrieves a list of all products with the given user ID, from the cache when present
+    // and otherwise from the repository in a read-only transaction. Cache hits open no transaction,
+    // and concurrent misses for the same user wait for the first one's load instead of querying again.
     public List<ProductEntity> retrieve(final String userId) {
-        return repository.findByUserId(userId);
+        List<ProductEntity> cached = productListCache.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Load and cache the list while no write to the user's products can run. Callers sharing a load
+        // hold the read lock as well, and the load leaves the in-flight map before its leader unlocks,
+        // so a caller arriving after a write committed never receives a list loaded before it.
+        Lock lock = versions.readLock(userId);
+        lock.lock();
+        try {
+            return coalesceLoads ? listLoads.execute(userId, () -> load(userId)) : load(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Loads a user's product list into the cache; must be called while holding the user's read lock
+    private List<ProductEntity> load(final String userId) {
+        // A list read from a replica that has not caught up with the user's last write would stay
+        // cached until the next write, so the user's recent writes keep the load on the primary
+        Map<String, ProductWriteBehind.PendingWrite> pending = writeBehind.pendingFor(userId);
+        List<ProductEntity> stored = readFor(userId,
+                () -> readOnlyTransactionTemplate.execute(status -> repository.findByUserId(userId)));
+        List<ProductEntity> entities = Collections.unmodifiableList(withPending(stored, pending, id -> true));
+        productListCache.put(userId, entities);
+        return entities;
+    }
+
+    /**
+     * Retrieves one page of the products with the given user ID using keyset pagination.
+     * The page is located by seeking past the cursor position, so the cost of a page does not
+     * depend on how deep into the catalog it is.
+     *
+     * @param userId The user ID whose products are listed.
+     * @param sort The sort order of the listing.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param limit The requested page size, or null for the default page size.
+     * @return The page of products and the cursor of the next page.
+     * @throws RuntimeException if the cursor is invalid or the page size is not positive.
+     */
+    @Transactional(readOnly = true)
+    public ProductPage retrievePage(final String userId, final ProductSort sort,
+                                    final String cursor, final Integer limit) {
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (size <= 0) {
+            throw new RuntimeException("Limit must be positive");
+        }
+        size = Math.min(size, MAX_PAGE_SIZE);
+
+        // Keyset pages are read from the database alone, after the user's queued writes are committed
+        writeBehind.awaitCommitted(userId);
+
+        // Fetch one extra row to find out whether there is a next page
+        Pageable pageable = PageRequest.of(0, size + 1);
+        ProductCursor position = cursor == null ? null : ProductCursor.decode(cursor, sort);
+        List<ProductEntity> rows = readFor(userId, () -> position == null
+                ? findFirstPage(userId, sort, pageable)
+                : findPageAfter(userId, position, pageable));
+
+        if (rows.size() <= size) {
+            return new ProductPage(rows, null);
+        }
+
+        List<ProductEntity> page = rows.subList(0, size);
+        String nextCursor = ProductCursor.after(sort, page.get(size - 1)).encode();
+        return new ProductPage(page, nextCursor);
+    }
+
+    // Runs the first-page query of the given sort order
+    private List<ProductEntity> findFirstPage(final String userId, final ProductSort sort, final Pageable pageable) {
+        switch (sort) {
+            case TITLE:
+                return repository.findPageOrderByTitle(userId, pageable);
+            case PRICE:
+                return repository.findPageOrderByPrice(userId, pageable);
+            default:
+                return repository.findPageOrderById(userId, pageable);
+        }
+    }
+
+    // Runs the query of the page following the cursor position
+    private List<ProductEntity> findPageAfter(final String userId, final ProductCursor cursor, final Pageable pageable) {
+        switch (cursor.getSort()) {
+            case TITLE:
+                return cursor.getKey() == null
+                        ? repository.findPageOrderByTitleAfterNull(userId, cursor.getId(), pageable)
+                        : repository.findPageOrderByTitleAfter(userId, cursor.getKey(), cursor.getId(), pageable);
+            case PRICE:
+                return cursor.getKey() == null
+                        ? repository.findPageOrderByPriceAfterNull(userId, cursor.getId(), pageable)
+                        : repository.findPageOrderByPriceAfter(userId, parsePrice(cursor.getKey()), cursor.getId(), pageable);
+            default:
+                return repository.findPageOrderByIdAfter(userId, cursor.getId(), pageable);
+        }
+    }
+
+    // Parses the price key of a cursor
+    private static Double parsePrice(final String key) {
+        try {
+            return Double.valueOf(key);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+
+    /**
+     * Gives the user's products that still have a key from the UUID generator a time-ordered key.
+     * Listeners see each re-keyed product deleted under its old ID and created under its new one, and the
+     * user's catalog version advances, so clients holding the old IDs resynchronize.
+     *
+     * @param userId The user ID owning the products.
+     * @return The number of re-keyed products.
+     * @throws RuntimeException if time-ordered keys are not enabled.
+     */
+    public int rekeyLegacyProducts(final String userId) {
+        if (!ids.isTimeOrdered()) {
+            throw new RuntimeException("Time-ordered IDs are not enabled");
+        }
+
+        int rekeyed = writeFor(userId, changes -> {
+            writeBehind.awaitCommitted(userId);
+            return transactionTemplate.execute(status -> {
+                List<ProductEntity> legacy = repository.findWithLegacyIdsByUserId(userId);
+                for (ProductEntity product : legacy) {
+                    String oldId = product.getId();
+                    String newId = ids.newId();
+                    repository.changeId(oldId, userId, newId);
+                    recordChange(changes, ProductChange.Type.DELETED,
+                            ProductEntity.builder().id(oldId).userId(userId).build());
+                    product.setId(newId);
+                    recordChange(changes, ProductChange.Type.CREATED, product);
+                }
+                return legacy.size();
+            });
+        });
+
+        if (rekeyed > 0) {
+            log.info("{} products of user {} given time-ordered IDs", rekeyed, userId);
+        }
+        return rekeyed;
+    }
+
+    /**
+     * Counts the products of all users. With sharding, every shard is queried in parallel.
+     *
+     * @return The number of stored products.
+     */
+    public long countProducts() {
+        return shardRouter.scatterGather(repository::count).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Returns the changes to the given user's products after a sequence of the user's change log,
+     * so a client can bring its copy of the product list up to date without retrieving it again.
+     *
+     * @param userId The user ID whose changes are returned.
+     * @param since The since token of the last page the client has applied, "0" for none.
+     * @param limit The maximum number of changes, or null for the maximum page size.
+     * @return The changes and the position to continue from, or the instruction to resync.
+     * @throws RuntimeException if the change log is disabled, the token is malformed or the limit is not positive.
+     */
+    public ProductChangeLogPage retrieveChanges(final String userId, final String since, final Integer limit) {
+        return changeLog.changesSince(userId, since, limit);
+    }
+
+    /**
+     * Searches the title and material of the given user's products.
+     * Only products matching every query term are returned, best matches first.
+     *
+     * @param userId The user ID whose products are searched.
+     * @param query The search terms.
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param limit The requested page size, or null for the default page size.
+     * @return The page of matching products and the cursor of the next page.
+     * @throws RuntimeException if the cursor is invalid or the page size is not positive.
+     */
+    public ProductPage search(final String userId, final String query, final String cursor, final Integer limit) {
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (size <= 0) {
+            throw new RuntimeException("Limit must be positive");
+        }
+        return searchIndex.search(userId, query, cursor, Math.min(size, MAX_PAGE_SIZE));
+    }
+
+    // Advances the user's catalog version for a write applied to the given entity and records the change.
+    // Called inside writeFor, so versions are assigned in the order the writes happen.
+    private ProductChange recordChange(final List<ProductChange> changes,
+                                       final ProductChange.Type type, final ProductEntity entity) {
+        ProductChange change = new ProductChange(type, entity, versions.increment(entity.getUserId()));
+        changes.add(change);
+        return change;
+    }
+
+    // Runs a write to a user's products under the user's write lock. The changes the write records
+    // are passed to the listeners once the write has succeeded, and the user's cached product list
+    // is invalidated before the lock is released. The write runs on the user's shard, and the user's
+    // reads go to the primary for a while after.
+    private <T> T writeFor(final String userId, final Function<List<ProductChange>, T> write) {
+        Lock lock = versions.writeLock(userId);
+        lock.lock();
+        try {
+            List<ProductChange> changes = new ArrayList<>();
+            T result = shardRouter.forUser(userId, () -> write.apply(changes));
+            publish(changes);
+            return result;
+        } finally {
+            readYourWrites.recordWrite(userId);
+            productListCache.invalidate(userId);
+            lock.unlock();
+        }
+    }
+
+    // Applies a user's queued writes to products read from the database: queued versions replace the
+    // stored ones, queued deletions remove them, and queued products the filter accepts that are not
+    // stored yet are added at the end
+    private static List<ProductEntity> withPending(final List<ProductEntity> stored,
+                                                   final Map<String, ProductWriteBehind.PendingWrite> pending,
+                                                   final Predicate<String> include) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+
+        List<ProductEntity> result = new ArrayList<>(stored.size() + pending.size());
+        Set<String> storedIds = new HashSet<>();
+        for (ProductEntity entity : stored) {
+            storedIds.add(entity.getId());
+            ProductWriteBehind.PendingWrite write = pending.get(entity.getId());
+            if (write == null) {
+                result.add(entity);
+            } else if (write.getType() != ProductChange.Type.DELETED) {
+                result.add(write.getEntity());
+            }
+        }
+        for (ProductWriteBehind.PendingWrite write : pending.values()) {
+            if (write.getType() != ProductChange.Type.DELETED && !storedIds.contains(write.getProductId())
+                    && include.test(write.getProductId())) {
+                result.add(write.getEntity());
+            }
+        }
+        return result;
+    }
+
+    // Publishes the state of a product whose acknowledged write the database rejected, as a change
+    // of its own, so the caches and listeners that already applied the write converge on what is stored
+    private void compensate(final ProductWriteBehind.PendingWrite write) {
+        writeFor(write.getUserId(), changes -> {
+            ProductEntity current = currentState(write.getUserId(), write.getProductId());
+            if (current != null) {
+                return recordChange(changes, ProductChange.Type.UPDATED, current);
+            }
+            return recordChange(changes, ProductChange.Type.DELETED, ProductEntity.builder()
+                    .id(write.getProductId())
+                    .userId(write.getUserId())
+                    .build());
+        });
+    }
+
+    // Runs a read of a user's products on the user's shard, on its primary database while the
+    // user's own writes may not have reached the replica yet
+    private <T> T readFor(final String userId, final Supplier<T> read) {
+        return shardRouter.forUser(userId, () -> readYourWrites.readFor(userId, read));
+    }
+
+    // Passes committed changes to every listener; a failing listener does not fail the write
+    private void publish(final List<ProductChange> changes) {
+        for (ProductChange change : changes) {
+            for (ProductChangeListener listener : listeners) {
+                try {
+                    listener.onProductChange(change);
+                } catch (Exception e) {
+                    log.error("Product change listener {} failed: {}", listener.getClass().getSimpleName(), e.getMessage());
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
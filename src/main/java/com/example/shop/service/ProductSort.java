@@ -0,0 +1,30 @@
+package com.example.shop.service;
+
+/**
+ * Sort orders supported by the paginated product listing.
+ * Every order is tie-broken by product ID so that pages are stable.
+ */
+public enum ProductSort {
+    ID,
+    TITLE,
+    PRICE;
+
+    /**
+     * Resolves a sort order from a request parameter, defaulting to ID.
+     *
+     * @param value the sort parameter, case-insensitive
+     * @return the matching sort order
+     * @throws RuntimeException if the value does not name a supported sort order
+     */
+    public static ProductSort from(final String value) {
+        if (value == null || value.isEmpty()) {
+            return ID;
+        }
+        for (ProductSort sort : values()) {
+            if (sort.name().equalsIgnoreCase(value)) {
+                return sort;
+            }
+        }
+        throw new RuntimeException("Unsupported sort: " + value);
+    }
+}
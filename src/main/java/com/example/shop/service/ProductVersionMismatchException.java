@@ -0,0 +1,20 @@
+package com.example.shop.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a conditional update names a product version that is not the stored one,
+ * because another write changed the product first, or because the product does not exist.
+ */
+@Getter
+public class ProductVersionMismatchException extends RuntimeException {
+
+    private final String productId;
+    private final Long expectedVersion;
+
+    public ProductVersionMismatchException(String productId, Long expectedVersion) {
+        super("Product with ID " + productId + " is not at version " + expectedVersion);
+        this.productId = productId;
+        this.expectedVersion = expectedVersion;
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.persistence.ProductRepository;
+import com.example.shop.persistence.ReadYourWritesTracker;
+import com.example.shop.persistence.ShardRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Optional write-behind pipeline for single product creates, updates and deletes.
+ * ProductService validates a write against the current state, acknowledges it and puts it in a bounded
+ * queue; a background writer drains the queue and commits what it finds in one transaction per shard,
+ * waiting at most shop.product-write-behind.max-delay-millis after the oldest write for more to join.
+ * Many concurrent writes then share one commit instead of paying for one each.
+ *
+ * Until a write is committed it stays in an overlay keyed by user and product, which ProductService
+ * applies on top of what it reads from the database, so users always read their own writes.
+ * When the application shuts down, the queue is closed and everything in it is committed before the
+ * database connections go away. A write that the database rejects is logged, counted and handed to the
+ * failure handler; writes are validated before they are queued, so this takes a database failure.
+ * Failure handlers run on a thread of their own: a request thread may hold a user's write lock while it
+ * waits for the writer, so the writer must never wait for a user's lock itself.
+ *
+ * When disabled, nothing is queued and ProductService writes synchronously.
+ */
+@Slf4j
+@Component
+public class ProductWriteBehind {
+
+    @Value("${shop.product-write-behind.enabled:false}")
+    private boolean enabled;
+
+    // Number of writes that may wait for the writer; when full, new writes are rejected
+    @Value("${shop.product-write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Largest number of writes committed together
+    @Value("${shop.product-write-behind.batch-size:500}")
+    private int batchSize;
+
+    // Time the writer waits after the oldest write in a batch for more writes to join it
+    @Value("${shop.product-write-behind.max-delay-millis:5}")
+    private long maxDelayMillis;
+
+    // Time a write waits for room in a full queue before it is rejected
+    @Value("${shop.product-write-behind.offer-timeout-millis:100}")
+    private long offerTimeoutMillis;
+
+    // Time a read or batch write waits for a user's queued writes to be committed
+    @Value("${shop.product-write-behind.await-timeout-millis:10000}")
+    private long awaitTimeoutMillis;
+
+    // Time shutdown waits for the queue to be committed
+    @Value("${shop.product-write-behind.shutdown-timeout-millis:30000}")
+    private long shutdownTimeoutMillis;
+
+    @Autowired
+    private ProductRepository repository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<PendingWrite> queue;
+
+    // Latest uncommitted write of each product, by user ID and product ID.
+    // The inner maps are only accessed inside compute calls on the outer map.
+    private final ConcurrentMap<String, Map<String, PendingWrite>> overlay = new ConcurrentHashMap<>();
+
+    // Writes are queued under the read lock; shutdown takes the write lock to stop accepting them
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean accepting;
+
+    // Notified by the writer after every batch, for threads waiting for writes to be committed
+    private final Object progress = new Object();
+
+    private Consumer<PendingWrite> failureHandler = write -> { };
+    private Thread writer;
+
+    // Runs the failure handler off the writer thread
+    private ExecutorService failureExecutor;
+
+    private Timer commitTimer;
+    private Timer lagTimer;
+    private DistributionSummary batchSizes;
+    private Counter failed;
+
+    // Starts the writer and registers the pipeline's metrics
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("shop.product.writebehind.queue.depth", queue, Collection::size)
+                .description("Product writes waiting for the write-behind writer")
+                .register(meterRegistry);
+        commitTimer = Timer.builder("shop.product.writebehind.commit")
+                .description("Time to commit one batch of product writes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        lagTimer = Timer.builder("shop.product.writebehind.lag")
+                .description("Time from queuing a product write to its commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("shop.product.writebehind.batch.size")
+                .description("Product writes committed together")
+                .register(meterRegistry);
+        failed = Counter.builder("shop.product.writebehind.failed")
+                .description("Acknowledged product writes the database rejected")
+                .register(meterRegistry);
+
+        failureExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("product-write-behind-failure-"));
+        accepting = true;
+        writer = new Thread(this::run, "product-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Product writes are committed behind with batches of up to {} and a delay of up to {} ms",
+                batchSize, maxDelayMillis);
+    }
+
+    // Stops accepting writes and commits everything still queued
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+
+        Lock lock = acceptLock.writeLock();
+        lock.lock();
+        try {
+            accepting = false;
+        } finally {
+            lock.unlock();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        writer.join(shutdownTimeoutMillis);
+        if (writer.isAlive() || !queue.isEmpty()) {
+            log.error("{} product writes were not committed before shutdown", queue.size());
+        } else {
+            log.info("All queued product writes committed");
+        }
+
+        // Let the handlers of rejected writes finish while the database is still available
+        failureExecutor.shutdown();
+        if (!failureExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            log.error("Failure handlers of rejected product writes did not finish before shutdown");
+        }
+    }
+
+    /**
+     * Checks whether product writes are committed behind.
+     *
+     * @return true if writes are queued
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the handler called with every acknowledged write the database rejected.
+     * It runs after the write has left the overlay, on a separate thread rather than the writer, so it may
+     * take the user's write lock while a thread holding that lock waits for the writer.
+     *
+     * @param failureHandler the handler
+     */
+    public void setFailureHandler(final Consumer<PendingWrite> failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * Queues a write and adds it to the overlay. The entity is copied, so later changes to it do not
+     * affect the write. Must be called while holding the user's write lock.
+     *
+     * @param type the kind of write
+     * @param entity the product as it is after the write; for deletions, its ID and user ID
+     * @return the queued write
+     * @throws RejectedExecutionException if the queue stays full or the application is shutting down
+     */
+    public PendingWrite enqueue(final ProductChange.Type type, final ProductEntity entity) {
+        PendingWrite write = new PendingWrite(type, copy(entity));
+
+        Lock lock = acceptLock.readLock();
+        lock.lock();
+        try {
+            if (!accepting || !queue.offer(write, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("Too many pending product writes, please try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while queuing a product write", e);
+        } finally {
+            lock.unlock();
+        }
+
+        overlay.compute(write.getUserId(), (userId, writes) -> {
+            Map<String, PendingWrite> pending = writes == null ? new HashMap<>() : writes;
+            pending.put(write.getProductId(), write);
+            return pending;
+        });
+        // The writer may have committed the write before it reached the overlay
+        if (write.done) {
+            removeFromOverlay(write);
+        }
+        return write;
+    }
+
+    /**
+     * Returns the uncommitted writes of a user's products.
+     *
+     * @param userId the user ID
+     * @return the latest uncommitted write of each product, by product ID
+     */
+    public Map<String, PendingWrite> pendingFor(final String userId) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+        Map<String, PendingWrite> snapshot = new HashMap<>();
+        overlay.computeIfPresent(userId, (id, writes) -> {
+            snapshot.putAll(writes);
+            return writes;
+        });
+        return snapshot;
+    }
+
+    /**
+     * Waits until the writes of a user's products queued so far are committed.
+     *
+     * @param userId the user ID
+     * @throws RuntimeException if they are not committed within the configured timeout
+     */
+    public void awaitCommitted(final String userId) {
+        Collection<PendingWrite> writes = pendingFor(userId).values();
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awaitTimeoutMillis);
+        synchronized (progress) {
+            while (writes.stream().anyMatch(write -> !write.done)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new RuntimeException("Timed out waiting for pending product writes of user " + userId);
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for pending product writes", e);
+                }
+            }
+        }
+    }
+
+    // Drains the queue in batches until it is closed and empty
+    private void run() {
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        while (true) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (!accepting && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                // Let more writes join the batch until the oldest one has waited long enough
+                List<PendingWrite> batch = new ArrayList<>(Math.min(batchSize, queueCapacity));
+                batch.add(first);
+                long deadline = first.enqueuedNanos + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                log.error("Product write-behind writer interrupted with {} writes queued", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Product write-behind writer failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // Commits a batch with one transaction per shard, or per user while shards are being rebalanced.
+    // A group whose transaction fails is retried one write at a time, so one bad write cannot take the
+    // others with it; writes of other groups are committed already and are not repeated.
+    private void commit(final List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        boolean perUser = shardRouter.isRebalancing();
+        Map<String, List<PendingWrite>> groups = batch.stream().collect(Collectors.groupingBy(
+                write -> perUser ? write.getUserId() : shardRouter.shardFor(write.getUserId()),
+                LinkedHashMap::new, Collectors.toList()));
+
+        List<PendingWrite> rejected = new ArrayList<>();
+        groups.forEach((key, writes) -> {
+            try {
+                applyAll(perUser, key, writes);
+            } catch (Exception e) {
+                log.warn("Commit of {} product writes failed, retrying one by one: {}", writes.size(), e.getMessage());
+                for (PendingWrite write : writes) {
+                    try {
+                        applyAll(perUser, key, Collections.singletonList(write));
+                    } catch (Exception writeFailure) {
+                        log.error("Product write {} of product {} of user {} was rejected and is lost: {}",
+                                write.getType(), write.getProductId(), write.getUserId(), writeFailure.getMessage());
+                        failed.increment();
+                        rejected.add(write);
+                    }
+                }
+            }
+        });
+
+        long committedAt = System.nanoTime();
+        commitTimer.record(committedAt - start, TimeUnit.NANOSECONDS);
+        batchSizes.record(batch.size());
+
+        Set<String> userIds = new LinkedHashSet<>();
+        for (PendingWrite write : batch) {
+            lagTimer.record(committedAt - write.enqueuedNanos, TimeUnit.NANOSECONDS);
+            write.done = true;
+            removeFromOverlay(write);
+            userIds.add(write.getUserId());
+        }
+        // The overlay no longer covers these users, so their reads must see the primary for a while
+        userIds.forEach(readYourWrites::recordWrite);
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+
+        for (PendingWrite write : rejected) {
+            failureExecutor.execute(() -> {
+                try {
+                    failureHandler.accept(write);
+                } catch (Exception e) {
+                    log.error("Failure handler for product {} failed: {}", write.getProductId(), e.getMessage());
+                }
+            });
+        }
+    }
+
+    // Applies writes in one transaction on the shard, or the user's shard, named by the group key
+    private void applyAll(final boolean perUser, final String key, final List<PendingWrite> writes) {
+        Runnable apply = () -> transactionTemplate.executeWithoutResult(status -> writes.forEach(this::apply));
+        if (perUser) {
+            shardRouter.forUser(key, () -> {
+                apply.run();
+                return null;
+            });
+        } else {
+            shardRouter.onShard(key, () -> {
+                apply.run();
+                return null;
+            });
+        }
+    }
+
+    // Applies one write with the same single statements the synchronous write paths use
+    private void apply(final PendingWrite write) {
+        ProductEntity entity = write.getEntity();
+        switch (write.getType()) {
+            case CREATED:
+                repository.insertNew(entity.getId(), entity.getUserId(),
+                        entity.getTitle(), entity.getMaterial(), entity.getPrice());
+                break;
+            case UPDATED:
+                int updated = repository.updateOwned(entity.getId(), entity.getUserId(),
+                        entity.getTitle(), entity.getMaterial(), entity.getPrice());
+                if (updated == 0) {
+                    throw new RuntimeException("Product with ID " + entity.getId() + " not found");
+                }
+                break;
+            default:
+                repository.deleteOwned(entity.getUserId(), Collections.singleton(entity.getId()));
+        }
+    }
+
+    // Removes a committed write from the overlay, unless a later write of the product replaced it
+    private void removeFromOverlay(final PendingWrite write) {
+        overlay.computeIfPresent(write.getUserId(), (userId, writes) -> {
+            writes.remove(write.getProductId(), write);
+            return writes.isEmpty() ? null : writes;
+        });
+    }
+
+    private static ProductEntity copy(final ProductEntity entity) {
+        return ProductEntity.builder()
+                .id(entity.getId())
+                .userId(entity.getUserId())
+                .title(entity.getTitle())
+                .material(entity.getMaterial())
+                .price(entity.getPrice())
+                .version(entity.getVersion())
+                .build();
+    }
+
+    /**
+     * A product write acknowledged to the client and not yet committed.
+     */
+    @Getter
+    public static final class PendingWrite {
+        private final ProductChange.Type type;
+        private final ProductEntity entity;
+        private final long enqueuedNanos = System.nanoTime();
+
+        // Set by the writer once the write is committed or rejected
+        private volatile boolean done;
+
+        private PendingWrite(ProductChange.Type type, ProductEntity entity) {
+            this.type = type;
+            this.entity = entity;
+        }
+
+        public String getUserId() {
+            return entity.getUserId();
+        }
+
+        public String getProductId() {
+            return entity.getId();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.shop.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent loads of the same key: the first caller for a key runs the load, and callers
+ * arriving while it is in flight wait for it and share its result or exception instead of loading again.
+ * The in-flight loads are held in a concurrent map of futures, so joining or starting a load takes no lock.
+ * Nothing is kept once a load completes; a caller arriving afterwards starts a new load.
+ *
+ * Meters, prefixed with the given name: .loads counts loads run, .coalesced counts callers served by a
+ * load another caller ran, and .inflight gauges the loads currently running.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter loads;
+    private final Counter coalesced;
+
+    /**
+     * Creates a SingleFlight registering its meters under the given name.
+     *
+     * @param meterRegistry the registry for the meters
+     * @param name the prefix of the meter names
+     */
+    public SingleFlight(final MeterRegistry meterRegistry, final String name) {
+        loads = Counter.builder(name + ".loads")
+                .description("Loads run, each possibly shared by several concurrent callers")
+                .register(meterRegistry);
+        coalesced = Counter.builder(name + ".coalesced")
+                .description("Callers served by a load already in flight for the same key")
+                .register(meterRegistry);
+        Gauge.builder(name + ".inflight", inFlight, ConcurrentMap::size)
+                .description("Loads currently in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the result of the load in flight for the key, or runs the load on the calling thread if
+     * there is none. A load that fails fails every caller sharing it with the same exception.
+     *
+     * @param key the key
+     * @param load the load to run if none is in flight for the key
+     * @return the result of the load
+     */
+    public V execute(final K key, final Supplier<V> load) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return join(running);
+        }
+
+        loads.increment();
+        try {
+            V value = load.get();
+            // Remove before completing, so a caller that sees the result can never join this load again
+            inFlight.remove(key, flight);
+            flight.complete(value);
+            return value;
+        } catch (Throwable e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // Waits for a load run by another caller, rethrowing its exception as it was thrown
+    private static <V> V join(final CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,45 +1,128 @@
 package com.example.shop.service;
 
 import com.example.shop.model.UserEntity;
+import com.example.shop.persistence.ReadYourWritesTracker;
 import com.example.shop.persistence.UserRepository;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
 
 /**
  * Service layer for managing UserEntity objects.
  * Contains methods for adding new users and retrieving existing users by credentials.
+ * Keeps a Bloom filter of registered emails so that checking the availability of an email
+ * that was never registered does not need a database query.
  */
 @Slf4j
 @Service
+@Timed("shop.service")
 public class UserService {
     @Autowired
     private UserRepository userRepository;
 
-    // This method adds a user to the database if they don't already exist
-    // and returns the saved user object
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Keeps reads of a just registered email on the primary database until the replica has it
+    @Autowired
+    private ReadYourWritesTracker readYourWrites;
+
+    // Number of emails the Bloom filter is sized for, and its false positive rate at that size
+    @Value("${shop.email-filter.expected-insertions:1000000}")
+    private long expectedEmails;
+
+    @Value("${shop.email-filter.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    // Emails registered so far. A negative answer is definite; a positive one is checked against the database.
+    // Emails registered by other instances after startup are missing, which the unique constraint still catches.
+    private BloomFilter<String> registeredEmails;
+
+    // Runs the email lookups, which may be served by the read replica
+    private TransactionTemplate readOnly;
+
+    // Fills the Bloom filter with the emails already in the database
+    @PostConstruct
+    void loadEmailFilter() {
+        registeredEmails = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8), expectedEmails, falsePositiveRate);
+
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            try (Stream<String> emails = userRepository.streamAllEmails()) {
+                emails.forEach(registeredEmails::put);
+            }
+        });
+        log.info("Email filter loaded with approximately {} emails", registeredEmails.approximateElementCount());
+    }
+
+    // This method adds a user to the database and returns the saved user object.
+    // It issues a single insert and relies on the unique constraint on email to reject
+    // duplicates, which also holds when the same email is registered concurrently.
     public UserEntity addUser(final UserEntity userEntity) {
         if (userEntity == null || userEntity.getEmail() == null) {
             throw new RuntimeException("Invalid arguments");
         }
 
         final String email = userEntity.getEmail();
-        if (userRepository.existsByEmail(email)) {
-            log.warn("Email {} already exists", email);
-            throw new RuntimeException("Email already exists");
+        try {
+            final UserEntity savedUser = userRepository.saveAndFlush(userEntity);
+            registeredEmails.put(email);
+            readYourWrites.recordWrite(email);
+            return savedUser;
+        } catch (DataIntegrityViolationException e) {
+            // Only look the email up on the rare failure path, to tell a duplicate from other violations
+            if (userRepository.existsByEmail(email)) {
+                registeredEmails.put(email);
+                log.warn("Email {} already exists", email);
+                throw new RuntimeException("Email already exists");
+            }
+            throw e;
         }
+    }
 
-        return userRepository.save(userEntity);
+    // This method checks whether an email can still be registered.
+    // Emails the Bloom filter has never seen are answered without touching the database.
+    public boolean isEmailAvailable(final String email) {
+        if (email == null) {
+            throw new RuntimeException("Invalid arguments");
+        }
+        if (!registeredEmails.mightContain(email)) {
+            return true;
+        }
+        return !readYourWrites.readFor(email,
+                () -> readOnly.execute(status -> userRepository.existsByEmail(email)));
     }
 
     // This method returns a user by their email and password if the combination
-    // is valid and exists in the database, otherwise it returns null
+    // is valid and exists in the database, otherwise it returns null.
+    // A password hashed in a format the encoder wants to upgrade is rehashed and saved.
+    // The lookup may be served by the read replica; the rehash is written to the primary.
     public UserEntity getUserByCredentials(final String email, final String password,
                                            final PasswordEncoder encoder) {
-        final UserEntity user = userRepository.findByEmail(email);
+        final UserEntity user = readYourWrites.readFor(email,
+                () -> readOnly.execute(status -> userRepository.findByEmail(email)));
 
         if (user != null && encoder.matches(password, user.getPassword())) {
+            if (encoder.upgradeEncoding(user.getPassword())) {
+                user.setPassword(encoder.encode(password));
+                userRepository.save(user);
+                readYourWrites.recordWrite(email);
+                log.info("Password of user {} rehashed", user.getId());
+            }
             return user;
         }
         return null;
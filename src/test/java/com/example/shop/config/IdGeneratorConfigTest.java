@@ -0,0 +1,55 @@
+package com.example.shop.config;
+
+import com.example.shop.model.TimeOrderedIds;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts IdGeneratorConfig alone with different properties and checks that new rows get UUID keys by
+ * default and that time-ordered IDs cannot be enabled without a worker ID.
+ */
+class IdGeneratorConfigTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withUserConfiguration(IdGeneratorConfig.class);
+
+    @Test
+    void uuidKeysByDefault() {
+        runner.run(context -> {
+            assertNull(context.getStartupFailure());
+            assertFalse(context.getBean(TimeOrderedIds.class).isTimeOrdered());
+        });
+    }
+
+    @Test
+    void startupFailsWithoutWorkerId() {
+        runner.withPropertyValues("shop.ids.time-ordered=true").run(context -> {
+            assertNotNull(context.getStartupFailure());
+            assertTrue(getRootCause(context.getStartupFailure()).getMessage().contains("shop.ids.worker-id"));
+        });
+    }
+
+    @Test
+    void configuredWorkerIdIsUsed() {
+        runner.withPropertyValues("shop.ids.time-ordered=true", "shop.ids.worker-id=12").run(context -> {
+            assertNull(context.getStartupFailure());
+            TimeOrderedIds ids = context.getBean(TimeOrderedIds.class);
+            assertTrue(ids.isTimeOrdered());
+            assertEquals(12, ids.getWorkerId());
+        });
+    }
+
+    private static Throwable getRootCause(Throwable failure) {
+        Throwable cause = failure;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,295 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.service.ProductService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Opens thousands of product change streams on local emitters, writes products through the ProductService
+ * and checks what every stream received: its own user's changes in catalog version order, resync for
+ * a stream that cannot keep up, and heartbeats while idle. Streams opened while writes are running start
+ * at the catalog version they were opened at and miss none of the changes after it.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:stream;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.product-stream.buffer-size=16",
+        "shop.product-stream.heartbeat-millis=100",
+        "shop.product-stream.max-subscribers-per-user=100",
+        "shop.product-stream.sender-threads=8"
+})
+class ProductChangeBroadcasterTest {
+
+    private static final int USERS = 40;
+    private static final int SUBSCRIBERS_PER_USER = 100;
+    private static final int PRODUCTS_PER_USER = 5;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductChangeBroadcaster broadcaster;
+
+    @Test
+    void everySubscriberReceivesItsUsersChangesInOrder() {
+        Map<String, List<RecordingEmitter>> emitters = new HashMap<>();
+        for (int i = 0; i < USERS; i++) {
+            String userId = UUID.randomUUID().toString();
+            List<RecordingEmitter> userEmitters = new ArrayList<>();
+            for (int j = 0; j < SUBSCRIBERS_PER_USER; j++) {
+                RecordingEmitter emitter = new RecordingEmitter(null);
+                subscribe(userId, emitter);
+                userEmitters.add(emitter);
+            }
+            emitters.put(userId, userEmitters);
+        }
+
+        Map<String, Set<String>> productIds = new HashMap<>();
+        for (String userId : emitters.keySet()) {
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < PRODUCTS_PER_USER; i++) {
+                ids.add(productService.createOne(product(userId)).getEntity().getId());
+            }
+            ProductEntity first = product(userId);
+            first.setId(ids.iterator().next());
+            first.setPrice(45.0);
+            productService.updateOne(first);
+            productService.deleteOne(first);
+            productIds.put(userId, ids);
+        }
+
+        // catalog, then the creates, the update and the delete
+        int expected = 1 + PRODUCTS_PER_USER + 2;
+        await(() -> emitters.values().stream().flatMap(List::stream).allMatch(emitter -> emitter.events().size() >= expected));
+
+        for (Map.Entry<String, List<RecordingEmitter>> entry : emitters.entrySet()) {
+            for (RecordingEmitter emitter : entry.getValue()) {
+                List<Received> events = emitter.events();
+                assertEquals(expected, events.size());
+                assertEquals(ProductChangeBroadcaster.CATALOG_EVENT, events.get(0).name);
+                for (int i = 1; i <= PRODUCTS_PER_USER; i++) {
+                    assertEquals("created", events.get(i).name);
+                }
+                assertEquals("updated", events.get(expected - 2).name);
+                assertEquals("deleted", events.get(expected - 1).name);
+
+                long previous = -1;
+                for (Received event : events) {
+                    assertTrue(event.id > previous, "Events must arrive in catalog version order");
+                    previous = event.id;
+                    if (event.data instanceof ProductDTO) {
+                        assertTrue(productIds.get(entry.getKey()).contains(((ProductDTO) event.data).getId()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void slowSubscriberIsDroppedWithoutHoldingBackOthers() {
+        String userId = UUID.randomUUID().toString();
+        RecordingEmitter fast = new RecordingEmitter(null);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(release);
+        subscribe(userId, fast);
+        int before = broadcaster.getSubscriberCount();
+        subscribe(userId, slow);
+
+        int writes = 40;
+        for (int i = 0; i < writes; i++) {
+            productService.createOne(product(userId));
+        }
+
+        await(() -> fast.events().size() == 1 + writes);
+        assertEquals(before, broadcaster.getSubscriberCount());
+
+        release.countDown();
+        await(slow::isCompleted);
+        List<Received> events = slow.events();
+        assertTrue(events.size() < 1 + writes);
+        assertEquals(ProductChangeBroadcaster.RESYNC_EVENT, events.get(events.size() - 1).name);
+    }
+
+    @Test
+    void idleSubscribersReceiveHeartbeats() {
+        String userId = UUID.randomUUID().toString();
+        RecordingEmitter emitter = new RecordingEmitter(null);
+        subscribe(userId, emitter);
+
+        await(() -> emitter.heartbeats.get() >= 3);
+        assertEquals(1, emitter.events().size());
+    }
+
+    @Test
+    void subscribersOpenedDuringWritesMissNoChange() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        int writes = 50;
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < writes; i++) {
+                productService.createOne(product(userId));
+            }
+        });
+        writer.start();
+        List<RecordingEmitter> emitters = new ArrayList<>();
+        while (writer.isAlive() && emitters.size() < SUBSCRIBERS_PER_USER) {
+            RecordingEmitter emitter = new RecordingEmitter(null);
+            subscribe(userId, emitter);
+            emitters.add(emitter);
+            // Spread the subscriptions over the writes
+            Thread.sleep(1);
+        }
+        writer.join(TIMEOUT_MILLIS);
+        long version = productService.getCatalogVersion(userId);
+        assertEquals(writes, version);
+
+        // Each stream starts at the version it was opened at and continues with every later change
+        await(() -> emitters.stream().allMatch(emitter -> emitter.isCompleted() || lastId(emitter) == version));
+        for (RecordingEmitter emitter : emitters) {
+            List<Received> events = emitter.events();
+            assertEquals(ProductChangeBroadcaster.CATALOG_EVENT, events.get(0).name);
+            long previous = events.get(0).id;
+            for (Received event : events.subList(1, events.size())) {
+                if (ProductChangeBroadcaster.RESYNC_EVENT.equals(event.name)) {
+                    break;
+                }
+                assertEquals("created", event.name);
+                assertEquals(previous + 1, event.id, "Changes after the catalog event must be contiguous");
+                previous = event.id;
+            }
+        }
+    }
+
+    private ProductChangeBroadcaster.Subscriber subscribe(String userId, RecordingEmitter emitter) {
+        return productService.atCatalogVersion(userId, version -> broadcaster.subscribe(userId, emitter, version));
+    }
+
+    // Returns the ID of the last event a stream received, or -1 before the first
+    private static long lastId(RecordingEmitter emitter) {
+        List<Received> events = emitter.events();
+        return events.isEmpty() ? -1 : events.get(events.size() - 1).id;
+    }
+
+    private static ProductEntity product(String userId) {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title("Lamp")
+                .material("Brass")
+                .price(30.0)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the streams");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    // A named event as written to a stream; the resync event has no ID and is given Long.MAX_VALUE
+    private static final class Received {
+        private final String name;
+        private final long id;
+        private final Object data;
+
+        private Received(String name, long id, Object data) {
+            this.name = name;
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    // Records the events sent to it instead of writing them to a response, optionally blocking the
+    // first send until released to act as a client that does not read
+    private static final class RecordingEmitter extends SseEmitter {
+        private final List<Received> events = new ArrayList<>();
+        private final AtomicInteger heartbeats = new AtomicInteger();
+        private final CountDownLatch release;
+        private volatile boolean completed;
+
+        private RecordingEmitter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+
+            StringBuilder text = new StringBuilder();
+            Object data = null;
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof String) {
+                    text.append(part.getData());
+                } else {
+                    data = part.getData();
+                }
+            }
+            if (text.charAt(0) == ':') {
+                heartbeats.incrementAndGet();
+                return;
+            }
+
+            String name = null;
+            long id = Long.MAX_VALUE;
+            for (String line : text.toString().split("\n")) {
+                if (line.startsWith("event:")) {
+                    name = line.substring("event:".length());
+                } else if (line.startsWith("id:")) {
+                    id = Long.parseLong(line.substring("id:".length()));
+                }
+            }
+            synchronized (events) {
+                events.add(new Received(name, id, data));
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        private boolean isCompleted() {
+            return completed;
+        }
+
+        private List<Received> events() {
+            synchronized (events) {
+                return new ArrayList<>(events);
+            }
+        }
+    }
+}
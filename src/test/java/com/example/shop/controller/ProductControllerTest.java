@@ -0,0 +1,215 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductChangeDTO;
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ResponseDTO;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.service.CatalogVersions;
+import com.example.shop.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Calls the ProductController directly, as the dispatcher would after authentication, and checks
+ * that writes answer with only the affected product and the new catalog version and epoch when a delta
+ * response is requested, and with the full product list otherwise, the conditional request handling:
+ * ETags and 304 Not Modified on the product list, If-Match and 412 Precondition Failed on updates.
+ * A list request never waits for a user's lock on the calling thread.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:controller;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductControllerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Autowired
+    private ProductController controller;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private CatalogVersions versions;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void deltaResponsesCarryTheChangeAndVersion() throws Exception {
+        String userId = UUID.randomUUID().toString();
+
+        ProductChangeDTO created = change(await(controller.createProduct(userId, product(null, "Lamp"),
+                "delta", null)));
+        assertEquals("created", created.getChange());
+        assertEquals("Lamp", created.getProduct().getTitle());
+        assertEquals(1, created.getVersion());
+        assertEquals(productService.getCatalogEpoch(), created.getEpoch());
+
+        ResponseEntity<?> minimal = await(controller.updateProduct(userId,
+                product(created.getProduct().getId(), "Desk lamp"), null, null, "respond-async, return=minimal"));
+        assertEquals("return=minimal", minimal.getHeaders().getFirst("Preference-Applied"));
+        ProductChangeDTO updated = change(minimal);
+        assertEquals("updated", updated.getChange());
+        assertEquals("Desk lamp", updated.getProduct().getTitle());
+        assertEquals(2, updated.getVersion());
+
+        ProductChangeDTO deleted = change(await(controller.deleteProduct(userId,
+                product(created.getProduct().getId(), null), "DELTA", null)));
+        assertEquals("deleted", deleted.getChange());
+        assertEquals(created.getProduct().getId(), deleted.getProduct().getId());
+        assertEquals(3, deleted.getVersion());
+
+        // The full list names the version the deltas above lead up to
+        ResponseEntity<?> list = list(userId, null);
+        assertEquals("3", list.getHeaders().getFirst("X-Catalog-Version"));
+        assertEquals(created.getEpoch(), list.getHeaders().getFirst("X-Catalog-Epoch"));
+        assertEquals(0, listSize(list));
+    }
+
+    @Test
+    void fullListIsTheDefaultResponse() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        await(controller.createProduct(userId, product(null, "Lamp"), null, null));
+
+        ResponseEntity<?> response = await(controller.createProduct(userId, product(null, "Vase"), null,
+                "return=representation"));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getFirst("Preference-Applied"));
+        List<?> products = ((ResponseDTO<?>) response.getBody()).getData();
+        assertEquals(2, products.size());
+        products.forEach(product -> assertEquals(ProductDTO.class, product.getClass()));
+    }
+
+    @Test
+    void currentListIsNotModified() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        await(controller.createProduct(userId, product(null, "Lamp"), null, null));
+
+        ResponseEntity<?> full = list(userId, null);
+        assertEquals(HttpStatus.OK, full.getStatusCode());
+        String etag = full.getHeaders().getETag();
+        assertNotNull(etag);
+        assertEquals(String.valueOf(productService.getCatalogVersion(userId)),
+                full.getHeaders().getFirst("X-Catalog-Version"));
+
+        for (String ifNoneMatch : List.of(etag, "W/" + etag, "\"other\", " + etag, "*")) {
+            ResponseEntity<?> notModified = list(userId, ifNoneMatch);
+            assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+            assertEquals(etag, notModified.getHeaders().getETag());
+            assertNull(notModified.getBody());
+        }
+
+        // A write changes the ETag, so the old one no longer matches
+        await(controller.createProduct(userId, product(null, "Vase"), null, null));
+        ResponseEntity<?> changed = list(userId, etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+        assertEquals(2, listSize(changed));
+    }
+
+    @Test
+    void listWaitsForAWriteOffTheCallingThread() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        await(controller.createProduct(userId, product(null, "Lamp"), null, null));
+
+        // While a write holds the user's lock, the call returns at once and the response follows the write
+        ExecutorService servlet = Executors.newSingleThreadExecutor();
+        Lock lock = versions.writeLock(userId);
+        lock.lock();
+        CompletableFuture<ResponseEntity<?>> pending;
+        try {
+            pending = servlet.submit(() -> controller.retrieveProductList(userId, null, null, null, null,
+                    "application/json", null)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertFalse(pending.isDone());
+        } finally {
+            lock.unlock();
+            servlet.shutdown();
+        }
+
+        ResponseEntity<?> response = await(pending);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, listSize(response));
+    }
+
+    @Test
+    void updateRequiresTheMatchingVersion() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity created = productService.createOne(ProductEntity.builder()
+                .userId(userId)
+                .title("Lamp")
+                .material("Brass")
+                .price(30.0)
+                .build()).getEntity();
+        String etag = "\"" + created.getVersion() + "\"";
+
+        ResponseEntity<?> updated = update(userId, created.getId(), "Desk lamp", etag);
+        assertEquals(HttpStatus.OK, updated.getStatusCode());
+        assertEquals("\"" + (created.getVersion() + 1) + "\"", updated.getHeaders().getETag());
+
+        // The first update moved the product past the version the second one is based on
+        ResponseEntity<?> stale = update(userId, created.getId(), "Floor lamp", etag);
+        assertEquals(HttpStatus.PRECONDITION_FAILED, stale.getStatusCode());
+        assertNotNull(((ResponseDTO<?>) stale.getBody()).getErrorMessage());
+        assertEquals("Desk lamp", productService.retrieve(userId).get(0).getTitle());
+
+        assertEquals(HttpStatus.OK, update(userId, created.getId(), "Floor lamp", "*").getStatusCode());
+        assertEquals(HttpStatus.OK, update(userId, created.getId(), "Wall lamp", null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, update(userId, created.getId(), "Lamp", "W/\"1\"").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, update(userId, created.getId(), "Lamp", "\"1\", \"2\"").getStatusCode());
+        assertEquals("Wall lamp", productService.retrieve(userId).get(0).getTitle());
+
+        // Another user's product is never updated, whatever version is named
+        ResponseEntity<?> foreign = update(UUID.randomUUID().toString(), created.getId(), "Mine", "*");
+        assertNull(foreign.getHeaders().getETag());
+        assertEquals("Wall lamp", productService.retrieve(userId).get(0).getTitle());
+    }
+
+    private ResponseEntity<?> list(String userId, String ifNoneMatch) throws Exception {
+        return await(controller.retrieveProductList(userId, null, null, null, ifNoneMatch, "application/json", null));
+    }
+
+    // Counts the products of a full list response, which JSON clients get as serialized bytes
+    private int listSize(ResponseEntity<?> response) throws Exception {
+        return objectMapper.readTree((byte[]) response.getBody()).path("data").size();
+    }
+
+    private ResponseEntity<?> update(String userId, String id, String title, String ifMatch) throws Exception {
+        return await(controller.updateProduct(userId, product(id, title), ifMatch, null, null));
+    }
+
+    private static ResponseEntity<?> await(CompletableFuture<ResponseEntity<?>> response) throws Exception {
+        return response.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Returns the single change of a delta response
+    private static ProductChangeDTO change(ResponseEntity<?> response) {
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<?> data = ((ResponseDTO<?>) response.getBody()).getData();
+        assertEquals(1, data.size());
+        return (ProductChangeDTO) data.get(0);
+    }
+
+    private static ProductDTO product(String id, String title) {
+        return ProductDTO.builder().id(id).title(title).material("Brass").price(30.0).build();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.dto.ResponseDTO;
+import com.example.shop.model.ProductEntity;
+import com.example.shop.service.ProductChange;
+import com.example.shop.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that a cached product list body is only served at the catalog version it was built at,
+ * that writes drop it, that an older body never replaces a newer one, and that large bodies get a
+ * gzip copy the controller sends to clients accepting gzip.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:bodies;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductListBodyCacheTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Autowired
+    private ProductListBodyCache bodyCache;
+
+    @Autowired
+    private ProductController controller;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void bodyIsServedOnlyAtItsVersion() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        ResponseDTO<ProductDTO> response = response(1);
+
+        ProductListBodyCache.Body body = bodyCache.put(userId, 2, response);
+        assertArrayEquals(objectMapper.writeValueAsBytes(response), body.getJson());
+        assertSame(body, bodyCache.getIfCurrent(userId, 2));
+        assertNull(bodyCache.getIfCurrent(userId, 1));
+        assertNull(bodyCache.getIfCurrent(userId, 3));
+    }
+
+    @Test
+    void olderBodyNeverReplacesANewerOne() throws Exception {
+        String userId = UUID.randomUUID().toString();
+
+        ProductListBodyCache.Body newer = bodyCache.put(userId, 3, response(2));
+        bodyCache.put(userId, 2, response(1));
+        assertSame(newer, bodyCache.getIfCurrent(userId, 3));
+        assertNull(bodyCache.getIfCurrent(userId, 2));
+    }
+
+    @Test
+    void writeDropsTheBody() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        bodyCache.put(userId, 5, response(1));
+
+        ProductEntity entity = ProductEntity.builder().id("0abc").userId(userId).build();
+        bodyCache.onProductChange(new ProductChange(ProductChange.Type.UPDATED, entity, 6));
+        assertNull(bodyCache.getIfCurrent(userId, 5));
+    }
+
+    @Test
+    void controllerServesTheCachedBodyUntilAWrite() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        create(userId, "Lamp");
+
+        ResponseEntity<?> first = list(userId, null);
+        ResponseEntity<?> second = list(userId, null);
+        assertEquals(HttpStatus.OK, second.getStatusCode());
+        assertSame(first.getBody(), second.getBody());
+        assertEquals(1, objectMapper.readTree((byte[]) second.getBody()).path("data").size());
+
+        // The write is published to the cache, so the next list is built again and shows the new product
+        create(userId, "Vase");
+        ResponseEntity<?> third = list(userId, null);
+        assertNotSame(second.getBody(), third.getBody());
+        assertEquals(2, objectMapper.readTree((byte[]) third.getBody()).path("data").size());
+    }
+
+    @Test
+    void largeBodiesAreSentGzippedWhenAccepted() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        ProductListBodyCache.Body small = bodyCache.put(userId, 1, response(1));
+        assertNull(small.getGzip());
+
+        for (int i = 0; i < 40; i++) {
+            create(userId, "Hand-thrown stoneware vase number " + i);
+        }
+        ResponseEntity<?> plain = list(userId, null);
+        assertNull(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        ResponseEntity<?> gzipped = list(userId, "gzip, deflate");
+        assertEquals("gzip", gzipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals((byte[]) plain.getBody(), gunzip((byte[]) gzipped.getBody()));
+    }
+
+    private void create(String userId, String title) {
+        productService.createOne(ProductEntity.builder()
+                .userId(userId)
+                .title(title)
+                .material("Stoneware")
+                .price(20.0)
+                .build());
+    }
+
+    private ResponseEntity<?> list(String userId, String acceptEncoding) throws Exception {
+        ResponseEntity<?> response = controller.retrieveProductList(userId, null, null, null, null,
+                "application/json", acceptEncoding).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(response.getBody());
+        return response;
+    }
+
+    private static ResponseDTO<ProductDTO> response(int products) {
+        List<ProductDTO> dtos = new ArrayList<>();
+        for (int i = 0; i < products; i++) {
+            dtos.add(ProductDTO.builder().id("0abc" + i).title("Lamp").material("Brass").price(30.0).build());
+        }
+        return ResponseDTO.<ProductDTO>builder().data(dtos).build();
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.shop.controller;
+
+import com.example.shop.dto.ProductDTO;
+import com.example.shop.service.CatalogVersions;
+import com.example.shop.service.ProductService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Runs the product endpoints on a single database thread with a short timeout, holding a user's write
+ * lock to keep a write running, and checks that only the wait for a thread is timed out: a write that
+ * has started is answered with its outcome however long it takes, and a write that timed out in the
+ * queue is answered with 503 and never applied.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:timeouts;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.product-executor.threads=1",
+        "shop.product-executor.timeout-millis=" + ProductRequestTimeoutTest.TIMEOUT_MILLIS
+})
+class ProductRequestTimeoutTest {
+
+    static final long TIMEOUT_MILLIS = 200;
+
+    private static final long AWAIT_SECONDS = 10;
+
+    @Autowired
+    private ProductController controller;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private CatalogVersions versions;
+
+    @Test
+    void startedWriteIsNotTimedOut() throws Exception {
+        String userId = UUID.randomUUID().toString();
+
+        CompletableFuture<ResponseEntity<?>> pending;
+        Lock lock = versions.writeLock(userId);
+        lock.lock();
+        try {
+            // The write has a thread but waits for the lock for well over the timeout
+            pending = controller.createProduct(userId, product("Lamp"), "delta", null);
+            Thread.sleep(TIMEOUT_MILLIS * 3);
+            assertFalse(pending.isDone());
+        } finally {
+            lock.unlock();
+        }
+
+        assertEquals(HttpStatus.OK, pending.get(AWAIT_SECONDS, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(1, productService.retrieve(userId).size());
+    }
+
+    @Test
+    void writeQueuedPastTheTimeoutIsNeverApplied() throws Exception {
+        String blockedUserId = UUID.randomUUID().toString();
+        String queuedUserId = UUID.randomUUID().toString();
+
+        CompletableFuture<ResponseEntity<?>> blocked;
+        Lock lock = versions.writeLock(blockedUserId);
+        lock.lock();
+        try {
+            // The only thread is taken by the blocked write, so the next one waits in the queue
+            blocked = controller.createProduct(blockedUserId, product("Lamp"), "delta", null);
+            ResponseEntity<?> queued = controller.createProduct(queuedUserId, product("Vase"), "delta", null)
+                    .get(AWAIT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, queued.getStatusCode());
+            assertNotNull(queued.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        } finally {
+            lock.unlock();
+        }
+        assertEquals(HttpStatus.OK, blocked.get(AWAIT_SECONDS, TimeUnit.SECONDS).getStatusCode());
+
+        // The pool runs tasks in order, so the timed-out write has been dropped once this read is answered
+        ResponseEntity<?> read = controller.retrieveProductBatch(queuedUserId, List.of("missing"))
+                .get(AWAIT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, read.getStatusCode());
+        assertEquals(0, productService.retrieve(queuedUserId).size());
+    }
+
+    private static ProductDTO product(String title) {
+        return ProductDTO.builder().title(title).material("Brass").price(30.0).build();
+    }
+}
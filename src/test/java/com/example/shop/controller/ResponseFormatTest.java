@@ -0,0 +1,139 @@
+package com.example.shop.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends requests to a running server and checks content negotiation: the product list in JSON,
+ * CBOR and Smile carries the same data, binary request bodies are accepted, and large responses
+ * are gzipped for clients that accept it.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:formats;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ResponseFormatTest {
+
+    private static final String CBOR = "application/cbor";
+    private static final String SMILE = "application/x-jackson-smile";
+    private static final int PRODUCTS = 40;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ObjectMapper json = new ObjectMapper();
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+
+    @LocalServerPort
+    private int port;
+
+    private String token;
+
+    // Signs up a new user and creates enough products to take the list well above the gzip threshold,
+    // sending the batch as CBOR
+    @BeforeEach
+    void signInAndCreateProducts() throws Exception {
+        ObjectNode user = json.createObjectNode()
+                .put("email", UUID.randomUUID() + "@example.com")
+                .put("username", "formats")
+                .put("password", "secret-password");
+        assertEquals(200, send(post("/users/signup", "application/json", json.writeValueAsBytes(user))).statusCode());
+        HttpResponse<byte[]> signin = send(post("/users/signin", "application/json", json.writeValueAsBytes(user)));
+        token = json.readTree(signin.body()).path("token").asText();
+
+        ObjectNode batch = cbor.createObjectNode();
+        ArrayNode creates = batch.putArray("create");
+        for (int i = 0; i < PRODUCTS; i++) {
+            creates.addObject()
+                    .put("title", "Hand-thrown stoneware vase number " + i)
+                    .put("material", "Stoneware with a celadon glaze")
+                    .put("price", 20.0 + i);
+        }
+        HttpResponse<byte[]> created = send(post("/api/product/batch", CBOR, cbor.writeValueAsBytes(batch)));
+        assertEquals(200, created.statusCode());
+    }
+
+    @Test
+    void everyFormatCarriesTheSameList() throws Exception {
+        HttpResponse<byte[]> asJson = send(get("/api/product").build());
+        assertTrue(asJson.headers().firstValue("Content-Type").orElse("").startsWith("application/json"));
+        JsonNode expected = json.readTree(asJson.body());
+        assertEquals(PRODUCTS, expected.path("data").size());
+
+        HttpResponse<byte[]> asCbor = send(get("/api/product").header("Accept", CBOR).build());
+        assertTrue(asCbor.headers().firstValue("Content-Type").orElse("").startsWith(CBOR));
+        assertEquals(expected, cbor.readTree(asCbor.body()));
+
+        HttpResponse<byte[]> asSmile = send(get("/api/product").header("Accept", SMILE).build());
+        assertTrue(asSmile.headers().firstValue("Content-Type").orElse("").startsWith(SMILE));
+        assertEquals(expected, smile.readTree(asSmile.body()));
+
+        // The binary encodings are smaller than the JSON text of the same data
+        assertTrue(asCbor.body().length < asJson.body().length);
+        assertTrue(asSmile.body().length < asJson.body().length);
+    }
+
+    @Test
+    void largeResponsesAreGzippedWhenAccepted() throws Exception {
+        HttpResponse<byte[]> plain = send(get("/api/product").build());
+        assertNull(plain.headers().firstValue("Content-Encoding").orElse(null));
+
+        for (String accept : new String[]{"application/json", CBOR}) {
+            HttpResponse<byte[]> gzipped = send(get("/api/product")
+                    .header("Accept", accept)
+                    .header("Accept-Encoding", "gzip")
+                    .build());
+            assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+
+            ObjectMapper mapper = accept.equals(CBOR) ? cbor : json;
+            assertEquals(PRODUCTS, mapper.readTree(gunzip(gzipped.body())).path("data").size());
+        }
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Authorization", "Bearer " + token)
+                .GET();
+    }
+
+    private HttpRequest post(String path, String contentType, byte[] body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder.build();
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.shop.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Issues IDs from several threads and checks that they never repeat, increase on every thread, carry
+ * the worker ID and keep their order when rendered as text.
+ */
+class TimeOrderedIdsTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 50000;
+
+    @Test
+    void idsIncreaseAndNeverRepeat() throws Exception {
+        TimeOrderedIds ids = new TimeOrderedIds(true, 7);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Set<String> all = new HashSet<>();
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    List<String> issued = new ArrayList<>(IDS_PER_THREAD);
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        issued.add(ids.newId());
+                    }
+                    return issued;
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                String previous = "";
+                for (String id : future.get()) {
+                    assertEquals(TimeOrderedIds.LENGTH, id.length());
+                    assertTrue(id.compareTo(previous) > 0, "IDs must increase on every thread");
+                    assertTrue(all.add(id), "IDs must not repeat");
+                    previous = id;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(THREADS * IDS_PER_THREAD, all.size());
+    }
+
+    @Test
+    void idsCarryTheWorkerId() {
+        TimeOrderedIds first = new TimeOrderedIds(true, 0);
+        TimeOrderedIds last = new TimeOrderedIds(true, 1023);
+
+        for (int i = 0; i < 10000; i++) {
+            long a = first.next();
+            long b = last.next();
+            assertEquals(0, (a >>> 12) & 1023);
+            assertEquals(1023, (b >>> 12) & 1023);
+            assertNotEquals(TimeOrderedIds.format(a), TimeOrderedIds.format(b));
+        }
+    }
+
+    @Test
+    void textSortsLikeTheNumber() {
+        assertEquals("0000000000000", TimeOrderedIds.format(0));
+        assertEquals("000000000000z", TimeOrderedIds.format(31));
+        assertEquals("0000000000010", TimeOrderedIds.format(32));
+        assertEquals("7zzzzzzzzzzzz", TimeOrderedIds.format(Long.MAX_VALUE));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long a = random.nextLong() >>> 1;
+            long b = random.nextLong() >>> (1 + random.nextInt(63));
+            assertEquals(Long.signum(Long.compare(a, b)),
+                    Integer.signum(TimeOrderedIds.format(a).compareTo(TimeOrderedIds.format(b))));
+        }
+    }
+
+    @Test
+    void uuidKeysWhenTimeOrderingIsOff() {
+        TimeOrderedIds ids = new TimeOrderedIds(false, -1);
+
+        String id = ids.newId();
+        assertEquals(TimeOrderedIds.UUID_LENGTH, id.length());
+        assertTrue(id.matches("[0-9a-f]+"));
+        assertTrue(TimeOrderedIds.isLegacy(id));
+        assertFalse(TimeOrderedIds.isLegacy(new TimeOrderedIds(true, 0).newId()));
+        assertFalse(TimeOrderedIds.isLegacy(null));
+    }
+
+    @Test
+    void workerIdMustBeInRange() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIds(true, -1));
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIds(true, 1024));
+    }
+}
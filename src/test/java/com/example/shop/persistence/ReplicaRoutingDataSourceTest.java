@@ -0,0 +1,148 @@
+package com.example.shop.persistence;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.model.UserEntity;
+import com.example.shop.security.PasswordHasher;
+import com.example.shop.service.ProductChange;
+import com.example.shop.service.ProductService;
+import com.example.shop.service.ProductSort;
+import com.example.shop.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the services against two separate in-memory H2 databases, one as the primary and one as the
+ * read replica, without replication between them. A row that exists in only one of the databases
+ * shows which one a read went to.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.datasource.replica.url=jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;INIT=RUNSCRIPT FROM 'classpath:replica-schema.sql'",
+        "shop.datasource.read-your-writes-millis=" + ReplicaRoutingDataSourceTest.WINDOW_MILLIS,
+        "shop.product-cache.maximum-size=0"
+})
+class ReplicaRoutingDataSourceTest {
+
+    static final long WINDOW_MILLIS = 500;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    @Qualifier("primaryDataSource")
+    private DataSource primaryDataSource;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replicaDataSource;
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+
+    // Each test works on products of its own user, so the tests do not see each other's rows
+    private String userId;
+
+    @BeforeEach
+    void setUp() {
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(replicaDataSource);
+        userId = UUID.randomUUID().toString();
+    }
+
+    @Test
+    void readOnlyReadsGoToReplica() {
+        insertProduct(replica, "replica-only-" + userId);
+
+        assertEquals(1, productService.retrieveByIds(userId, List.of("replica-only-" + userId)).size());
+        assertEquals(1, productService.retrievePage(userId, ProductSort.ID, null, 10).getEntities().size());
+        assertEquals(1, productService.retrieve(userId).size());
+    }
+
+    @Test
+    void writesGoToPrimary() {
+        ProductChange change = productService.createOne(product());
+        String id = change.getEntity().getId();
+
+        assertEquals(1, count(primary, id));
+        assertEquals(0, count(replica, id));
+    }
+
+    @Test
+    void ownReadsGoToPrimaryUntilWindowEnds() throws InterruptedException {
+        String id = productService.createOne(product()).getEntity().getId();
+
+        // Right after the write the user's reads see it, although the replica does not have it
+        assertEquals(1, productService.retrieveByIds(userId, List.of(id)).size());
+        assertEquals(1, productService.retrievePage(userId, ProductSort.ID, null, 10).getEntities().size());
+
+        // Another user's reads are not affected by the write
+        String otherUserId = UUID.randomUUID().toString();
+        insertProduct(replica, "replica-only-" + otherUserId, otherUserId);
+        assertEquals(1, productService.retrieve(otherUserId).size());
+
+        // Once the window has passed the user's reads go back to the replica, which never got the row
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertTrue(productService.retrieveByIds(userId, Collections.singletonList(id)).isEmpty());
+    }
+
+    @Test
+    void signInFindsJustRegisteredUser() throws InterruptedException {
+        String email = userId + "@example.com";
+        userService.addUser(UserEntity.builder()
+                .username("replica")
+                .email(email)
+                .password(passwordHasher.getEncoder().encode("password"))
+                .build());
+
+        assertFalse(userService.isEmailAvailable(email));
+        assertNotNull(userService.getUserByCredentials(email, "password", passwordHasher.getEncoder()));
+
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertNull(userService.getUserByCredentials(email, "password", passwordHasher.getEncoder()));
+    }
+
+    private ProductEntity product() {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title("Chair")
+                .material("Oak")
+                .price(10.0)
+                .build();
+    }
+
+    private void insertProduct(JdbcTemplate database, String id) {
+        insertProduct(database, id, userId);
+    }
+
+    private static void insertProduct(JdbcTemplate database, String id, String userId) {
+        database.update("insert into product (id, user_id, title, material, price, version) values (?, ?, ?, ?, ?, ?)",
+                id, userId, "Table", "Pine", 20.0, 0L);
+    }
+
+    private static int count(JdbcTemplate database, String id) {
+        Integer count = database.queryForObject("select count(*) from product where id = ?", Integer.class, id);
+        return count == null ? 0 : count;
+    }
+}
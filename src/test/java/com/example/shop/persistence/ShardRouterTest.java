@@ -0,0 +1,163 @@
+package com.example.shop.persistence;
+
+import com.example.shop.model.ProductEntity;
+import com.example.shop.service.ProductService;
+import com.example.shop.service.ProductSort;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the services against three in-memory H2 databases as product shards.
+ * Rows are checked directly in each database to see where the services put them.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.sharding.enabled=true",
+        "shop.sharding.default-shard=shard0",
+        "shop.sharding.shards.shard1.url=jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1",
+        "shop.sharding.shards.shard2.url=jdbc:h2:mem:shard2;DB_CLOSE_DELAY=-1",
+        "shop.sharding.update-schema=true",
+        "shop.sharding.rebalance.auto-start=false"
+})
+class ShardRouterTest {
+
+    private static final int USERS = 60;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Test
+    void productsLiveOnTheirUsersShard() {
+        Set<String> usedShards = new HashSet<>();
+        for (int i = 0; i < USERS; i++) {
+            String userId = UUID.randomUUID().toString();
+            String id = productService.createOne(product(userId)).getEntity().getId();
+
+            String shard = shardRouter.shardFor(userId);
+            usedShards.add(shard);
+            for (String other : shardRouter.shards()) {
+                assertEquals(other.equals(shard) ? 1 : 0, countForUser(other, userId));
+            }
+            assertEquals(1, productService.retrieveByIds(userId, List.of(id)).size());
+            assertEquals(1, productService.retrieve(userId).size());
+            assertEquals(1, productService.retrievePage(userId, ProductSort.ID, null, 10).getEntities().size());
+        }
+        assertEquals(3, usedShards.size());
+    }
+
+    @Test
+    void countSpansAllShards() {
+        long before = productService.countProducts();
+        for (int i = 0; i < 10; i++) {
+            productService.createOne(product(UUID.randomUUID().toString()));
+        }
+
+        long total = 0;
+        for (String shard : shardRouter.shards()) {
+            total += jdbc(shard).queryForObject("select count(*) from product", Long.class);
+        }
+        assertEquals(before + 10, productService.countProducts());
+        assertEquals(total, productService.countProducts());
+    }
+
+    @Test
+    void addedShardReceivesItsUsersOnRebalance() {
+        // Place products as a two-shard deployment would have, before shard2 was added
+        ConsistentHashRing twoShards = new ConsistentHashRing(List.of("shard0", "shard1"), 128);
+        ConsistentHashRing threeShards = new ConsistentHashRing(shardRouter.shards(), 128);
+        List<String> moving = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            String userId = UUID.randomUUID().toString();
+            String before = twoShards.shardFor(userId);
+            String after = threeShards.shardFor(userId);
+            if (!before.equals(after)) {
+                // Consistent hashing only moves users to the added shard
+                assertEquals("shard2", after);
+                moving.add(userId);
+            }
+            insertProduct(before, userId);
+        }
+        assertFalse(moving.isEmpty());
+
+        // A user whose products are all deleted still has change log rows to move
+        String changesOnlyUser;
+        do {
+            changesOnlyUser = UUID.randomUUID().toString();
+        } while (!threeShards.shardFor(changesOnlyUser).equals("shard2"));
+        insertChange(twoShards.shardFor(changesOnlyUser), changesOnlyUser);
+
+        shardRouter.beginRebalance(List.of("shard0", "shard1"));
+        assertTrue(shardRouter.isRebalancing());
+
+        // Pending users are still served from their old shard, and their new products are written there too
+        String movingUser = moving.get(0);
+        assertEquals(1, productService.retrieveByIds(movingUser, List.of(movingUser + "-1")).size());
+        productService.createOne(product(movingUser));
+        assertEquals(2, countForUser(twoShards.shardFor(movingUser), movingUser));
+
+        assertEquals(moving.size() + 1, shardRebalancer.rebalance());
+        assertFalse(shardRouter.isRebalancing());
+        assertEquals(1, countChangesForUser("shard2", changesOnlyUser));
+        assertEquals(0, countChangesForUser(twoShards.shardFor(changesOnlyUser), changesOnlyUser));
+        for (String userId : moving) {
+            assertEquals("shard2", shardRouter.shardFor(userId));
+            assertEquals(userId.equals(movingUser) ? 2 : 1, countForUser("shard2", userId));
+            assertEquals(0, countForUser(twoShards.shardFor(userId), userId));
+            assertEquals(1, productService.retrieveByIds(userId, List.of(userId + "-1")).size());
+        }
+    }
+
+    private static ProductEntity product(String userId) {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title("Lamp")
+                .material("Brass")
+                .price(30.0)
+                .build();
+    }
+
+    private void insertProduct(String shard, String userId) {
+        jdbc(shard).update("insert into product (id, user_id, title, material, price, version) values (?, ?, ?, ?, ?, ?)",
+                userId + "-1", userId, "Shelf", "Birch", 40.0, 0L);
+    }
+
+    private void insertChange(String shard, String userId) {
+        jdbc(shard).update("insert into product_change (id, user_id, seq, product_id, type, created_at)"
+                        + " values (?, ?, ?, ?, ?, ?)",
+                userId + "-c1", userId, 1L, userId + "-1", "DELETED", System.currentTimeMillis());
+    }
+
+    private int countChangesForUser(String shard, String userId) {
+        Integer count = jdbc(shard).queryForObject("select count(*) from product_change where user_id = ?",
+                Integer.class, userId);
+        return count == null ? 0 : count;
+    }
+
+    private int countForUser(String shard, String userId) {
+        Integer count = jdbc(shard).queryForObject("select count(*) from product where user_id = ?", Integer.class, userId);
+        return count == null ? 0 : count;
+    }
+
+    private JdbcTemplate jdbc(String shard) {
+        return new JdbcTemplate(shardRouter.shardDataSource(shard));
+    }
+}
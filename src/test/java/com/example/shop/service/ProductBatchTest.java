@@ -0,0 +1,116 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Applies product batches and checks the outcome reported for every operation, that updates and
+ * deletes never touch another user's products, and that a batch whose transaction fails leaves
+ * the catalog exactly as it was.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:batches;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductBatchTest {
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void everyOperationReportsItsOutcome() {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity kept = create(userId, "Lamp");
+        ProductEntity removed = create(userId, "Vase");
+        ProductEntity foreign = create(UUID.randomUUID().toString(), "Bowl");
+
+        List<ProductBatchItem> items = productService.applyBatch(userId,
+                List.of(product(null, "Chair")),
+                Arrays.asList(product(kept.getId(), "Desk lamp"), product(foreign.getId(), "Mine"), product(null, "Stool")),
+                Arrays.asList(product(removed.getId(), null), product(removed.getId(), null), product("missing", null)));
+
+        assertEquals(7, items.size());
+        assertItem(items.get(0), ProductChange.Type.CREATED, 0, ProductBatchItem.Status.OK);
+        assertNotNull(items.get(0).getEntity().getId());
+        assertItem(items.get(1), ProductChange.Type.UPDATED, 0, ProductBatchItem.Status.OK);
+        assertItem(items.get(2), ProductChange.Type.UPDATED, 1, ProductBatchItem.Status.NOT_FOUND);
+        assertItem(items.get(3), ProductChange.Type.UPDATED, 2, ProductBatchItem.Status.INVALID);
+        assertItem(items.get(4), ProductChange.Type.DELETED, 0, ProductBatchItem.Status.OK);
+        assertItem(items.get(5), ProductChange.Type.DELETED, 1, ProductBatchItem.Status.NOT_FOUND);
+        assertItem(items.get(6), ProductChange.Type.DELETED, 2, ProductBatchItem.Status.NOT_FOUND);
+
+        Map<String, ProductEntity> stored = byId(productService.retrieve(userId));
+        assertEquals(2, stored.size());
+        assertEquals("Desk lamp", stored.get(kept.getId()).getTitle());
+        assertEquals("Chair", stored.get(items.get(0).getEntity().getId()).getTitle());
+        assertEquals("Bowl", byId(productService.retrieve(foreign.getUserId())).get(foreign.getId()).getTitle());
+    }
+
+    @Test
+    void failedBatchAppliesNothing() {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity kept = create(userId, "Lamp");
+        ProductEntity other = create(userId, "Vase");
+
+        // The title does not fit the column, so the insert fails when the transaction is flushed
+        String tooLong = String.join("", Collections.nCopies(300, "x"));
+        assertThrows(RuntimeException.class, () -> productService.applyBatch(userId,
+                List.of(product(null, "Chair"), product(null, tooLong)),
+                List.of(product(kept.getId(), "Desk lamp")),
+                List.of(product(other.getId(), null))));
+
+        Map<String, ProductEntity> stored = byId(productService.retrieve(userId));
+        assertEquals(2, stored.size());
+        assertEquals("Lamp", stored.get(kept.getId()).getTitle());
+        assertEquals("Vase", stored.get(other.getId()).getTitle());
+    }
+
+    @Test
+    void oversizedBatchIsRejected() {
+        String userId = UUID.randomUUID().toString();
+        List<ProductEntity> creates = new ArrayList<>();
+        for (int i = 0; i <= ProductService.MAX_BATCH_SIZE; i++) {
+            creates.add(product(null, "Lamp " + i));
+        }
+
+        assertThrows(RuntimeException.class,
+                () -> productService.applyBatch(userId, creates, List.of(), List.of()));
+        assertEquals(0, productService.retrieve(userId).size());
+    }
+
+    private ProductEntity create(String userId, String title) {
+        ProductEntity entity = product(null, title);
+        entity.setUserId(userId);
+        return productService.createOne(entity).getEntity();
+    }
+
+    private static void assertItem(ProductBatchItem item, ProductChange.Type operation, int index,
+                                   ProductBatchItem.Status status) {
+        assertEquals(operation, item.getOperation());
+        assertEquals(index, item.getIndex());
+        assertEquals(status, item.getStatus());
+    }
+
+    private static Map<String, ProductEntity> byId(List<ProductEntity> products) {
+        return products.stream().collect(Collectors.toMap(ProductEntity::getId, Function.identity()));
+    }
+
+    private static ProductEntity product(String id, String title) {
+        return ProductEntity.builder().id(id).title(title).material("Brass").price(30.0).build();
+    }
+}
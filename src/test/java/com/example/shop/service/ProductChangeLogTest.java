@@ -0,0 +1,230 @@
+package com.example.shop.service;
+
+import com.example.shop.ShopApplication;
+import com.example.shop.model.ProductChangeEntity;
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes products through the ProductService and reads the change log back, with the background
+ * writer and compaction left to the test: the writer runs when a test calls flush, compaction when it
+ * calls compact. Written entries leave memory at the next compaction and tombstones are dropped by it
+ * right away, and at most MAX_UNFLUSHED changes wait to be written. A restart is simulated by running
+ * a second application on the same database.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:changelog;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.product-change-log.flush-millis=3600000",
+        "shop.product-change-log.memory-retention-seconds=0",
+        "shop.product-change-log.tombstone-retention-hours=0",
+        "shop.product-change-log.max-unflushed-entries=" + ProductChangeLogTest.MAX_UNFLUSHED
+})
+class ProductChangeLogTest {
+
+    static final int MAX_UNFLUSHED = 8;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductChangeLog changeLog;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    void emptyQueue() {
+        changeLog.flush();
+    }
+
+    @Test
+    void changesAreSequencedPerUser() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        String other = UUID.randomUUID().toString();
+        ProductEntity lamp = create(userId, "Lamp");
+        create(other, "Vase");
+        ProductEntity bowl = create(userId, "Bowl");
+        lamp.setTitle("Desk lamp");
+        productService.updateOne(lamp);
+        bowl.setPrice(15.0);
+        productService.updateOne(bowl);
+
+        ProductChangeLogPage page = changes(userId, 0, null);
+        assertEquals(List.of(1L, 2L, 3L, 4L), seqs(page.getChanges()));
+        assertEquals(List.of("CREATED", "CREATED", "UPDATED", "UPDATED"),
+                page.getChanges().stream().map(ProductChangeEntity::getType).collect(Collectors.toList()));
+        assertEquals("Desk lamp", page.getChanges().get(2).getTitle());
+        assertEquals(4, page.getSeq());
+        assertFalse(page.isMore());
+        assertEquals(List.of(1L), seqs(changes(other, 0, null).getChanges()));
+
+        // Pages continue where the previous one ended, from memory or from the table alike
+        ProductChangeLogPage first = changes(userId, 1, 2);
+        assertEquals(List.of(2L, 3L), seqs(first.getChanges()));
+        assertTrue(first.isMore());
+        changeLog.flush();
+        Thread.sleep(5);
+        changeLog.compact();
+        ProductChangeLogPage rest = productService.retrieveChanges(userId, first.getSince(), 2);
+        assertEquals(List.of(4L), seqs(rest.getChanges()));
+        assertFalse(rest.isMore());
+
+        ProductChangeLogPage current = changes(userId, 4, null);
+        assertTrue(current.getChanges().isEmpty());
+        assertFalse(current.isResync());
+        assertTrue(changes(userId, 5, null).isResync());
+    }
+
+    @Test
+    void compactionKeepsTheLatestChangeAndRaisesTheFloor() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity lamp = create(userId, "Lamp");
+        ProductEntity bowl = create(userId, "Bowl");
+        lamp.setTitle("Desk lamp");
+        productService.updateOne(lamp);
+        productService.deleteOne(bowl);
+        create(userId, "Vase");
+
+        changeLog.flush();
+        Thread.sleep(5);
+        changeLog.compact();
+
+        // The superseded creates and the tombstone are gone; clients from before the tombstone resync
+        assertEquals(List.of(3L, 5L), jdbc().queryForList(
+                "select seq from product_change where user_id = ? and type <> 'COMPACTED' order by seq", Long.class, userId));
+        assertTrue(changes(userId, 0, null).isResync());
+        assertTrue(changes(userId, 3, null).isResync());
+        ProductChangeLogPage page = changes(userId, 4, null);
+        assertFalse(page.isResync());
+        assertEquals(List.of(5L), seqs(page.getChanges()));
+    }
+
+    @Test
+    void changesBeyondTheQueueMakeTheUserResync() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        for (int i = 0; i < MAX_UNFLUSHED; i++) {
+            create(userId, "Lamp");
+        }
+        // The queue is full, so this change is not logged
+        create(userId, "Vase");
+        assertTrue(changes(userId, MAX_UNFLUSHED, null).isResync());
+
+        // Once written, a sequence is skipped for the missing change and becomes the floor
+        changeLog.flush();
+        long floor = MAX_UNFLUSHED + 1;
+        assertTrue(changes(userId, MAX_UNFLUSHED, null).isResync());
+        ProductChangeLogPage page = changes(userId, floor, null);
+        assertFalse(page.isResync());
+        assertTrue(page.getChanges().isEmpty());
+
+        create(userId, "Bowl");
+        assertEquals(List.of(floor + 1), seqs(changes(userId, floor, null).getChanges()));
+
+        // The floor is stored, so it holds once the log is loaded from the table again
+        changeLog.flush();
+        assertEquals(floor, jdbc().queryForObject(
+                "select max(seq) from product_change where user_id = ? and type = 'COMPACTED'", Long.class, userId));
+        Thread.sleep(5);
+        changeLog.compact();
+        assertTrue(changes(userId, MAX_UNFLUSHED, null).isResync());
+        assertFalse(changes(userId, floor, null).isResync());
+    }
+
+    @Test
+    void sinceTokensCarryTheEpoch() {
+        String userId = UUID.randomUUID().toString();
+        create(userId, "Lamp");
+        create(userId, "Vase");
+        String epoch = productService.getCatalogEpoch();
+
+        assertEquals(epoch + ".2", changes(userId, 0, null).getSince());
+        assertFalse(productService.retrieveChanges(userId, epoch + ".1", null).isResync());
+
+        // A sequence of another epoch, or without one, says nothing about this run's log
+        assertTrue(productService.retrieveChanges(userId, "other.1", null).isResync());
+        assertTrue(productService.retrieveChanges(userId, "1", null).isResync());
+        assertThrows(RuntimeException.class, () -> productService.retrieveChanges(userId, epoch + ".x", null));
+        assertThrows(RuntimeException.class, () -> productService.retrieveChanges(userId, "-1", null));
+    }
+
+    @Test
+    void tokensFromBeforeARestartResync() {
+        String userId = UUID.randomUUID().toString();
+
+        // An earlier run of the application logs two changes and hands out a token for the second
+        String since;
+        try (ConfigurableApplicationContext earlier = new SpringApplicationBuilder(ShopApplication.class)
+                .properties(
+                        "server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:changelog;DB_CLOSE_DELAY=-1",
+                        "spring.jpa.hibernate.ddl-auto=none",
+                        "shop.product-change-log.flush-millis=3600000",
+                        "logging.level.root=WARN")
+                .run()) {
+            ProductService earlierService = earlier.getBean(ProductService.class);
+            earlierService.createOne(product(userId, "Lamp"));
+            earlier.getBean(ProductChangeLog.class).flush();
+            earlierService.createOne(product(userId, "Vase"));
+            ProductChangeLogPage seen = earlierService.retrieveChanges(userId, "0", null);
+            assertEquals(2, seen.getSeq());
+            since = seen.getSince();
+        }
+        // Its shutdown wrote the second change; a crash would have lost it
+        jdbc().update("delete from product_change where user_id = ? and seq = 2", userId);
+
+        // This run continues the sequence from the table, so the next change is given sequence 2 again
+        create(userId, "Bowl");
+        ProductChangeLogPage page = changes(userId, 0, null);
+        assertEquals(List.of(1L, 2L), seqs(page.getChanges()));
+        assertEquals("Bowl", page.getChanges().get(1).getTitle());
+
+        // The client that saw the lost change at sequence 2 resyncs instead of missing the bowl
+        ProductChangeLogPage stale = productService.retrieveChanges(userId, since, null);
+        assertTrue(stale.isResync());
+        assertTrue(stale.getChanges().isEmpty());
+        assertEquals(page.getSince(), stale.getSince());
+    }
+
+    private ProductEntity create(String userId, String title) {
+        return productService.createOne(product(userId, title)).getEntity();
+    }
+
+    private static ProductEntity product(String userId, String title) {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title(title)
+                .material("Clay")
+                .price(12.0)
+                .build();
+    }
+
+    // Reads the changes after a sequence of the current epoch
+    private ProductChangeLogPage changes(String userId, long seq, Integer limit) {
+        return productService.retrieveChanges(userId, seq == 0 ? "0" : productService.getCatalogEpoch() + "." + seq, limit);
+    }
+
+    private JdbcTemplate jdbc() {
+        return new JdbcTemplate(dataSource);
+    }
+
+    private static List<Long> seqs(List<ProductChangeEntity> changes) {
+        return changes.stream().map(ProductChangeEntity::getSeq).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Encodes cursors for every sort order and decodes them again, including keys that are null or
+ * contain the separator, and checks that malformed cursors and cursors of another sort are rejected.
+ */
+class ProductCursorTest {
+
+    @Test
+    void cursorsSurviveEncoding() {
+        ProductEntity product = ProductEntity.builder().id("0abc").title("Lamp\nshade").price(30.5).build();
+
+        for (ProductSort sort : ProductSort.values()) {
+            ProductCursor decoded = ProductCursor.decode(ProductCursor.after(sort, product).encode(), sort);
+            assertEquals(sort, decoded.getSort());
+            assertEquals("0abc", decoded.getId());
+        }
+        assertEquals("Lamp\nshade", ProductCursor.decode(ProductCursor.after(ProductSort.TITLE, product).encode(),
+                ProductSort.TITLE).getKey());
+        assertEquals("30.5", ProductCursor.decode(ProductCursor.after(ProductSort.PRICE, product).encode(),
+                ProductSort.PRICE).getKey());
+    }
+
+    @Test
+    void nullKeysStayNull() {
+        ProductEntity product = ProductEntity.builder().id("0abc").build();
+
+        assertNull(ProductCursor.decode(ProductCursor.after(ProductSort.TITLE, product).encode(), ProductSort.TITLE).getKey());
+        assertNull(ProductCursor.decode(ProductCursor.after(ProductSort.PRICE, product).encode(), ProductSort.PRICE).getKey());
+    }
+
+    @Test
+    void encodedCursorsAreUrlSafe() {
+        ProductEntity product = ProductEntity.builder().id("0abc").title("???>>>~~~").build();
+
+        String cursor = ProductCursor.after(ProductSort.TITLE, product).encode();
+        assertFalse(cursor.contains("+") || cursor.contains("/") || cursor.contains("="));
+    }
+
+    @Test
+    void invalidCursorsAreRejected() {
+        ProductEntity product = ProductEntity.builder().id("0abc").title("Lamp").build();
+        String titleCursor = ProductCursor.after(ProductSort.TITLE, product).encode();
+
+        RuntimeException wrongSort = assertThrows(RuntimeException.class,
+                () -> ProductCursor.decode(titleCursor, ProductSort.PRICE));
+        assertEquals("Cursor does not match sort price", wrongSort.getMessage());
+        assertThrows(RuntimeException.class, () -> ProductCursor.decode("not base64!", ProductSort.ID));
+        assertThrows(RuntimeException.class, () -> ProductCursor.decode(encode("ID\n0abc"), ProductSort.ID));
+        assertThrows(RuntimeException.class, () -> ProductCursor.decode(encode("ID\n0abc\n?x"), ProductSort.ID));
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
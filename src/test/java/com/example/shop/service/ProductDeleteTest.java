@@ -0,0 +1,111 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deletes products one at a time and in bulk with the set-based statement, and checks that only the
+ * caller's products are removed, that missing and foreign IDs are ignored or reported as not found,
+ * that only removed products are published as changes, and that the search index drops them.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:deletes;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductDeleteTest {
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void bulkDeleteRemovesOnlyTheCallersProducts() {
+        String userId = UUID.randomUUID().toString();
+        String otherUserId = UUID.randomUUID().toString();
+        String lamp = create(userId, "Lamp");
+        String vase = create(userId, "Vase");
+        String bowl = create(userId, "Bowl");
+        String foreign = create(otherUserId, "Lamp");
+        assertEquals(List.of(lamp), ids(productService.search(userId, "lamp", null, 10).getEntities()));
+
+        long version = productService.getCatalogVersion(userId);
+        long otherVersion = productService.getCatalogVersion(otherUserId);
+
+        // Duplicates, nulls, missing IDs and another user's product are ignored
+        int deleted = productService.deleteByIds(userId, Arrays.asList(lamp, vase, lamp, null, "missing", foreign));
+
+        assertEquals(2, deleted);
+        // Only the removed products are published, so each of them advances the version once
+        assertEquals(version + 2, productService.getCatalogVersion(userId));
+        assertEquals(otherVersion, productService.getCatalogVersion(otherUserId));
+        assertEquals(List.of(bowl), ids(productService.retrieve(userId)));
+        assertEquals(List.of(foreign), ids(productService.retrieve(otherUserId)));
+        assertEquals(0, productService.search(userId, "lamp", null, 10).getEntities().size());
+        assertEquals(0, productService.search(userId, "vase", null, 10).getEntities().size());
+    }
+
+    @Test
+    void bulkDeleteOfNothingDeletesNothing() {
+        String userId = UUID.randomUUID().toString();
+        String lamp = create(userId, "Lamp");
+
+        long version = productService.getCatalogVersion(userId);
+
+        assertEquals(0, productService.deleteByIds(userId, List.of()));
+        assertEquals(0, productService.deleteByIds(userId, List.of("missing")));
+        assertEquals(version, productService.getCatalogVersion(userId));
+        assertEquals(List.of(lamp), ids(productService.retrieve(userId)));
+    }
+
+    @Test
+    void oversizedBulkDeleteIsRejected() {
+        String userId = UUID.randomUUID().toString();
+        String lamp = create(userId, "Lamp");
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < ProductService.MAX_BATCH_SIZE; i++) {
+            ids.add("missing-" + i);
+        }
+        ids.add(lamp);
+
+        assertThrows(RuntimeException.class, () -> productService.deleteByIds(userId, ids));
+        assertEquals(List.of(lamp), ids(productService.retrieve(userId)));
+    }
+
+    @Test
+    void singleDeleteChecksTheOwner() {
+        String userId = UUID.randomUUID().toString();
+        String lamp = create(userId, "Lamp");
+
+        ProductEntity foreign = ProductEntity.builder().id(lamp).userId(UUID.randomUUID().toString()).build();
+        RuntimeException notFound = assertThrows(RuntimeException.class, () -> productService.deleteOne(foreign));
+        assertTrue(notFound.getMessage().endsWith("Product with ID " + lamp + " not found"));
+        assertEquals(List.of(lamp), ids(productService.retrieve(userId)));
+
+        productService.deleteOne(ProductEntity.builder().id(lamp).userId(userId).build());
+        assertEquals(List.of(), ids(productService.retrieve(userId)));
+    }
+
+    private String create(String userId, String title) {
+        return productService.createOne(ProductEntity.builder()
+                .userId(userId)
+                .title(title)
+                .material("Clay")
+                .price(20.0)
+                .build()).getEntity().getId();
+    }
+
+    private static List<String> ids(List<ProductEntity> products) {
+        return products.stream().map(ProductEntity::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Exports products whose titles contain separators, quotes, line breaks and non-ASCII text, and checks
+ * that every row reads back unchanged from both the NDJSON and the CSV output.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:exports;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductExporterTest {
+
+    private static final List<String> TITLES = List.of(
+            "Lamp",
+            "Lamp, brass",
+            "The \"Orbit\" lamp",
+            "Two\nlines",
+            "Carriage\r\nreturn",
+            "Vase, \"blue\"\nglazed",
+            "Bol à café ☕");
+
+    @Autowired
+    private ProductExporter exporter;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void ndjsonRowsReadBackUnchanged() throws Exception {
+        Map<String, String> titles = createProducts();
+
+        String output = export(ProductExporter.Format.NDJSON);
+        assertTrue(output.endsWith("\n"));
+
+        Map<String, String> exported = new HashMap<>();
+        for (String line : output.split("\n")) {
+            JsonNode row = objectMapper.readTree(line);
+            exported.put(row.path("id").asText(), row.path("title").asText());
+        }
+        titles.forEach((id, title) -> assertEquals(title, exported.get(id)));
+    }
+
+    @Test
+    void csvFieldsAreQuotedWhereNeeded() throws Exception {
+        Map<String, String> titles = createProducts();
+
+        List<List<String>> records = parseCsv(export(ProductExporter.Format.CSV));
+        assertEquals(List.of("id", "user_id", "title", "material", "price", "version"), records.get(0));
+
+        Map<String, String> exported = new HashMap<>();
+        for (List<String> record : records.subList(1, records.size())) {
+            assertEquals(6, record.size());
+            exported.put(record.get(0), record.get(2));
+        }
+        titles.forEach((id, title) -> assertEquals(title, exported.get(id)));
+    }
+
+    // Creates a product for every title and returns the titles by product ID
+    private Map<String, String> createProducts() {
+        String userId = UUID.randomUUID().toString();
+        Map<String, String> titles = new HashMap<>();
+        for (String title : TITLES) {
+            ProductEntity product = productService.createOne(ProductEntity.builder()
+                    .userId(userId)
+                    .title(title)
+                    .material("Brass")
+                    .price(30.0)
+                    .build()).getEntity();
+            titles.put(product.getId(), title);
+        }
+        return titles;
+    }
+
+    private String export(final ProductExporter.Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(format, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // Splits RFC 4180 text into records of unquoted fields
+    private static List<List<String>> parseCsv(final String text) {
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                record.add(field.toString());
+                field.setLength(0);
+                records.add(record);
+                record = new ArrayList<>();
+                i++;
+            } else {
+                field.append(c);
+            }
+        }
+        assertTrue(record.isEmpty() && field.length() == 0, "Output must end with a line break");
+        return records;
+    }
+}
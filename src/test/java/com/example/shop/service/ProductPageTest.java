@@ -0,0 +1,92 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Walks a user's products page by page in every sort order, with repeated and null sort keys, and
+ * checks that the keyset queries return every product exactly once in (key, id) order, null keys first.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:pages;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductPageTest {
+
+    private static final String[] TITLES = {null, "Bowl", "Lamp", "Lamp", "Vase"};
+    private static final Double[] PRICES = {null, 10.0, 10.0, 25.5, 99.0};
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void pagesCoverEveryProductInOrder() {
+        String userId = UUID.randomUUID().toString();
+        List<ProductEntity> products = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            ProductEntity product = ProductEntity.builder()
+                    .userId(userId)
+                    .title(TITLES[i % TITLES.length])
+                    .material("Clay")
+                    .price(PRICES[(i / 2) % PRICES.length])
+                    .build();
+            productService.create(product);
+            products.add(product);
+        }
+        productService.create(ProductEntity.builder().userId(UUID.randomUUID().toString()).title("Other").build());
+
+        Comparator<ProductEntity> byId = Comparator.comparing(ProductEntity::getId);
+        assertPages(userId, ProductSort.ID, products, byId);
+        assertPages(userId, ProductSort.TITLE, products,
+                Comparator.comparing(ProductEntity::getTitle, Comparator.nullsFirst(Comparator.<String>naturalOrder())).thenComparing(byId));
+        assertPages(userId, ProductSort.PRICE, products,
+                Comparator.comparing(ProductEntity::getPrice, Comparator.nullsFirst(Comparator.<Double>naturalOrder())).thenComparing(byId));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        String userId = UUID.randomUUID().toString();
+        productService.create(ProductEntity.builder().userId(userId).title("Lamp").build());
+
+        ProductPage page = productService.retrievePage(userId, ProductSort.TITLE, null, 1);
+        assertEquals(1, page.getEntities().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void invalidLimitsAndCursorsAreRejected() {
+        String userId = UUID.randomUUID().toString();
+
+        assertThrows(RuntimeException.class, () -> productService.retrievePage(userId, ProductSort.ID, null, 0));
+        assertThrows(RuntimeException.class, () -> productService.retrievePage(userId, ProductSort.PRICE,
+                new ProductCursor(ProductSort.PRICE, "cheap", "0abc").encode(), 10));
+    }
+
+    // Reads every page of the sort order, three products at a time, and compares with the expected order
+    private void assertPages(String userId, ProductSort sort, List<ProductEntity> products,
+                             Comparator<ProductEntity> order) {
+        List<String> read = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProductPage page = productService.retrievePage(userId, sort, cursor, 3);
+            page.getEntities().forEach(product -> read.add(product.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(products.stream().sorted(order).map(ProductEntity::getId).collect(Collectors.toList()), read,
+                "Pages sorted by " + sort.name().toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Searches products through the ProductService and checks the ranking, the paging of results and
+ * that the index follows creates, updates and deletes after it was built.
+ * Each test searches once before creating products, so the index is built empty and documents are
+ * numbered in creation order, which decides between equal scores.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:search;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductSearchIndexTest {
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void termsAreLowerCaseWordsInOrder() {
+        assertEquals(List.of("brass", "lamp", "60w"),
+                new ArrayList<>(ProductSearchIndex.tokenize("Brass  lamp, 60W brass-LAMP")));
+        assertTrue(ProductSearchIndex.tokenize(null).isEmpty());
+        assertTrue(ProductSearchIndex.tokenize(" - ").isEmpty());
+    }
+
+    @Test
+    void titleMatchesRankAboveMaterialMatches() {
+        String userId = emptyIndex();
+        String brassLamp = create(userId, "Brass lamp", "Steel");
+        String deskLamp = create(userId, "Desk lamp", "Brass");
+        create(userId, "Floor lamp", "Wood");
+        String vase = create(userId, "Vase", "Brass");
+
+        assertEquals(List.of(brassLamp, deskLamp, vase), search(userId, "brass"));
+        // Every term must occur, in either field
+        assertEquals(List.of(brassLamp, deskLamp), search(userId, "LAMP brass"));
+        assertEquals(List.of(), search(userId, "brass chair"));
+        assertEquals(List.of(), search(userId, "  "));
+    }
+
+    @Test
+    void rarerTermsWeighMore() {
+        String userId = emptyIndex();
+        String common = create(userId, "Lamp", "Oak");
+        String rare = create(userId, "Oak", "Lamp");
+        create(userId, "Lamp", "Steel");
+        create(userId, "Lamp", "Glass");
+
+        // Both have one term in the title and the other in the material; the rarer term in the title wins
+        assertEquals(List.of(rare, common), search(userId, "lamp oak"));
+    }
+
+    @Test
+    void pagesFollowTheRanking() {
+        String userId = emptyIndex();
+        for (int i = 0; i < 25; i++) {
+            create(userId, i % 3 == 0 ? "Clay vase" : "Vase", i % 2 == 0 ? "Clay" : "Glass");
+        }
+
+        List<String> all = search(userId, "clay vase");
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProductPage page = productService.search(userId, "clay vase", cursor, 4);
+            page.getEntities().forEach(product -> paged.add(product.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(all, paged);
+        assertNull(productService.search(userId, "clay vase", null, all.size()).getNextCursor());
+    }
+
+    @Test
+    void indexFollowsWrites() {
+        String userId = emptyIndex();
+        String lamp = create(userId, "Lamp", "Brass");
+        assertEquals(List.of(lamp), search(userId, "lamp"));
+
+        ProductEntity update = ProductEntity.builder().id(lamp).userId(userId).title("Vase").material("Brass").build();
+        productService.updateOne(update);
+        assertEquals(List.of(), search(userId, "lamp"));
+        assertEquals(List.of(lamp), search(userId, "vase"));
+
+        productService.deleteOne(update);
+        assertEquals(List.of(), search(userId, "vase"));
+    }
+
+    @Test
+    void invalidCursorsAreRejected() {
+        String userId = emptyIndex();
+
+        assertThrows(RuntimeException.class, () -> productService.search(userId, "lamp", "not a cursor", 10));
+        assertThrows(RuntimeException.class, () -> productService.search(userId, "lamp", cursor("page:1"), 10));
+        assertThrows(RuntimeException.class, () -> productService.search(userId, "lamp", cursor("search:-1"), 10));
+        assertThrows(RuntimeException.class, () -> productService.search(userId, "lamp",
+                cursor("search:" + (ProductSearchIndex.MAX_RESULT_WINDOW - 5)), 10));
+        assertThrows(RuntimeException.class, () -> productService.search(userId, "lamp", null, 0));
+    }
+
+    // Returns a new user whose index is built before any product exists
+    private String emptyIndex() {
+        String userId = UUID.randomUUID().toString();
+        assertEquals(List.of(), search(userId, "lamp"));
+        return userId;
+    }
+
+    private String create(String userId, String title, String material) {
+        return productService.createOne(ProductEntity.builder()
+                .userId(userId)
+                .title(title)
+                .material(material)
+                .price(20.0)
+                .build()).getEntity().getId();
+    }
+
+    private List<String> search(String userId, String query) {
+        return productService.search(userId, query, null, 100).getEntities().stream()
+                .map(ProductEntity::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static String cursor(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.shop.service;
+
+import com.example.shop.model.ProductEntity;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes products through the ProductService with write-behind enabled and a long commit delay, so
+ * concurrent writes are committed together and there is time to change the database under a queued
+ * write. Rows are checked directly in the database to see what the writer committed. A rejected write
+ * is compensated off the writer thread, so later writes commit meanwhile.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:writebehind;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "shop.product-write-behind.enabled=true",
+        "shop.product-write-behind.batch-size=50",
+        "shop.product-write-behind.max-delay-millis=" + ProductWriteBehindTest.DELAY_MILLIS
+})
+class ProductWriteBehindTest {
+
+    static final long DELAY_MILLIS = 1000;
+
+    private static final int THREADS = 8;
+    private static final int WRITES_PER_THREAD = 25;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductWriteBehind writeBehind;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CatalogVersions versions;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void concurrentWritesShareCommits() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        DistributionSummary batches = meterRegistry.get("shop.product.writebehind.batch.size").summary();
+        long batchesBefore = batches.count();
+        double writesBefore = batches.totalAmount();
+
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < WRITES_PER_THREAD; j++) {
+                        ids.add(productService.createOne(product(userId)).getEntity().getId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Acknowledged writes are read back before they are committed
+        int writes = THREADS * WRITES_PER_THREAD;
+        assertEquals(ids, productService.retrieve(userId).stream().map(ProductEntity::getId).collect(Collectors.toSet()));
+
+        writeBehind.awaitCommitted(userId);
+        assertEquals(writes, countForUser(userId));
+        assertEquals(writes, batches.totalAmount() - writesBefore, 0.0);
+        assertTrue(batches.count() - batchesBefore < writes / 10,
+                "Expected few commits, got " + (batches.count() - batchesBefore));
+    }
+
+    @Test
+    void rejectedWriteIsCompensated() {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity created = productService.createOne(product(userId)).getEntity();
+        writeBehind.awaitCommitted(userId);
+        double failedBefore = meterRegistry.get("shop.product.writebehind.failed").counter().count();
+
+        ProductEntity update = ProductEntity.builder().id(created.getId()).userId(userId).title("Vase").build();
+        long updated = productService.updateOne(update).getVersion();
+        // The row disappears before the writer commits the update, so the database rejects it
+        new JdbcTemplate(dataSource).update("delete from product where id = ?", created.getId());
+
+        await(() -> productService.getCatalogVersion(userId) > updated);
+        assertEquals(failedBefore + 1, meterRegistry.get("shop.product.writebehind.failed").counter().count(), 0.0);
+        assertEquals(updated + 1, productService.getCatalogVersion(userId));
+        assertTrue(productService.retrieve(userId).isEmpty());
+    }
+
+    @Test
+    void writerKeepsCommittingWhileARejectedWritesUserIsLocked() {
+        String userId = UUID.randomUUID().toString();
+        ProductEntity created = productService.createOne(product(userId)).getEntity();
+        writeBehind.awaitCommitted(userId);
+        double failedBefore = meterRegistry.get("shop.product.writebehind.failed").counter().count();
+
+        ProductEntity update = ProductEntity.builder().id(created.getId()).userId(userId).title("Vase").build();
+        long updated = productService.updateOne(update).getVersion();
+        new JdbcTemplate(dataSource).update("delete from product where id = ?", created.getId());
+
+        // A request holding the user's write lock may wait for the writer, so the failure handler,
+        // which needs that lock, must not hold up the writes queued after the rejected one
+        Lock lock = versions.writeLock(userId);
+        lock.lock();
+        try {
+            await(() -> meterRegistry.get("shop.product.writebehind.failed").counter().count() > failedBefore);
+            String otherUserId = UUID.randomUUID().toString();
+            productService.createOne(product(otherUserId));
+            writeBehind.awaitCommitted(otherUserId);
+            assertEquals(1, countForUser(otherUserId));
+            assertEquals(updated, productService.getCatalogVersion(userId));
+        } finally {
+            lock.unlock();
+        }
+
+        await(() -> productService.getCatalogVersion(userId) > updated);
+        assertTrue(productService.retrieve(userId).isEmpty());
+    }
+
+    private int countForUser(String userId) {
+        return new JdbcTemplate(dataSource).queryForObject("select count(*) from product where user_id = ?",
+                Integer.class, userId);
+    }
+
+    private static ProductEntity product(String userId) {
+        return ProductEntity.builder()
+                .userId(userId)
+                .title("Lamp")
+                .material("Brass")
+                .price(30.0)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the writer");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.shop.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts many callers for the same key while a load is held back, and checks that they share one load
+ * and its result or exception, that other keys load on their own and that nothing is kept afterwards.
+ */
+class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> flight = new SingleFlight<>(meterRegistry, "test.flight");
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = callConcurrently(() -> flight.execute("user", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "products";
+        }), started, release);
+
+        for (Future<String> result : results) {
+            assertEquals("products", result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+        assertEquals(1, meterRegistry.get("test.flight.loads").counter().count(), 0.0);
+        assertEquals(CALLERS - 1, meterRegistry.get("test.flight.coalesced").counter().count(), 0.0);
+        assertEquals(0, meterRegistry.get("test.flight.inflight").gauge().value(), 0.0);
+    }
+
+    @Test
+    void failureReachesEveryCaller() throws Exception {
+        IllegalStateException failure = new IllegalStateException("database unavailable");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = callConcurrently(() -> flight.execute("user", () -> {
+            started.countDown();
+            await(release);
+            throw failure;
+        }), started, release);
+
+        for (Future<String> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+        }
+
+        // A failed load is not kept, so the next caller loads again
+        assertEquals("retried", flight.execute("user", () -> "retried"));
+    }
+
+    @Test
+    void keysLoadIndependently() {
+        AtomicInteger runs = new AtomicInteger();
+
+        String result = flight.execute("a", () -> {
+            runs.incrementAndGet();
+            return flight.execute("b", () -> {
+                runs.incrementAndGet();
+                return "b";
+            }) + "a";
+        });
+        assertEquals("ba", result);
+        assertEquals(2, runs.get());
+
+        // Completed loads are not cached
+        flight.execute("a", () -> String.valueOf(runs.incrementAndGet()));
+        assertEquals(3, runs.get());
+    }
+
+    // Starts CALLERS threads running the call once the first has started its load, then releases the load
+    // once every other caller is waiting for it
+    private List<Future<String>> callConcurrently(Callable<String> call,
+                                                  CountDownLatch started, CountDownLatch release) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(call));
+            assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            for (int i = 1; i < CALLERS; i++) {
+                results.add(executor.submit(call));
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            while (meterRegistry.get("test.flight.coalesced").counter().count() < CALLERS - 1) {
+                assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the callers");
+                Thread.sleep(1);
+            }
+            release.countDown();
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+-- Schema of the read replica used by ReplicaRoutingDataSourceTest.
+-- In production the replica receives the schema from the primary through replication.
+create table if not exists user_entity (
+    id varchar(255) not null,
+    email varchar(255) not null,
+    password varchar(255) not null,
+    username varchar(255) not null,
+    primary key (id),
+    unique (email)
+);
+create table if not exists product (
+    id varchar(255) not null,
+    material varchar(255),
+    price double precision,
+    title varchar(255),
+    user_id varchar(255),
+    version bigint,
+    primary key (id)
+);
+create table if not exists product_change (
+    id varchar(255) not null,
+    created_at bigint,
+    material varchar(255),
+    price double precision,
+    product_id varchar(255),
+    seq bigint,
+    title varchar(255),
+    type varchar(255),
+    user_id varchar(255),
+    version bigint,
+    primary key (id)
+);